@@ -16,6 +16,7 @@ public class ActivityManager {
     private boolean getContentProviderExternalMethodLegacy;
     private Method removeContentProviderExternalMethod;
     private Method getProcessMemoryInfoMethod;
+    private Method getMemoryInfoMethod;
 
     public ActivityManager(IInterface manager) {
         this.manager = manager;
@@ -105,4 +106,26 @@ public class ActivityManager {
         }
         return null;
     }
+
+    private Method getGetMemoryInfoMethod() throws NoSuchMethodException {
+        if (getMemoryInfoMethod == null) {
+            getMemoryInfoMethod = manager.getClass().getMethod("getMemoryInfo", android.app.ActivityManager.MemoryInfo.class);
+        }
+        return getMemoryInfoMethod;
+    }
+
+    /**
+     * System memory info, threshold is the available memory under which the low memory killer starts to kill
+     */
+    public android.app.ActivityManager.MemoryInfo getMemoryInfo() {
+        try {
+            Method method = getGetMemoryInfoMethod();
+            android.app.ActivityManager.MemoryInfo memoryInfo = new android.app.ActivityManager.MemoryInfo();
+            method.invoke(manager, memoryInfo);
+            return memoryInfo;
+        } catch (InvocationTargetException | IllegalAccessException | NoSuchMethodException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
 }
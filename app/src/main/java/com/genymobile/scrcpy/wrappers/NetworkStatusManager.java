@@ -3,14 +3,25 @@ package com.genymobile.scrcpy.wrappers;
 import android.os.IInterface;
 
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 
 public class NetworkStatusManager {
+    public static final long UNSUPPORTED = -1;
+
     private final IInterface manager;
+    private Method getUidStatsMethod;
 
     public NetworkStatusManager(IInterface manager) {
         this.manager = manager;
     }
 
+    private Method getGetUidStatsMethod() throws NoSuchMethodException {
+        if (getUidStatsMethod == null) {
+            getUidStatsMethod = manager.getClass().getMethod("getUidStats", int.class, int.class);
+        }
+        return getUidStatsMethod;
+    }
+
     /*
     TYPE_RX_BYTES = 0
     TYPE_RX_PACKETS = 1
@@ -21,10 +32,29 @@ public class NetworkStatusManager {
     */
     public long getUidStats(int uid, int type) {
         try {
-            return (long) manager.getClass().getMethod("getUidStats", new Class[]{int.class, int.class}).invoke(manager, uid, type);
+            return (long) getGetUidStatsMethod().invoke(manager, uid, type);
         } catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
             e.printStackTrace();
         }
         return 0;
     }
+
+    /**
+     * Read the stats of TYPE_RX_BYTES to TYPE_TX_PACKETS at once
+     *
+     * @param stats stats[type], {@link #UNSUPPORTED} if the caller is not allowed(android 11+)
+     * @return false if failed
+     */
+    public boolean getUidStats(int uid, long[] stats) {
+        try {
+            Method method = getGetUidStatsMethod();
+            for (int type = 0; type < stats.length; type++) {
+                stats[type] = (long) method.invoke(manager, uid, type);
+            }
+            return true;
+        } catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
 }
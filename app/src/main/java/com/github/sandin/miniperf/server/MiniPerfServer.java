@@ -14,15 +14,23 @@ import com.github.sandin.miniperf.server.bean.TargetApp;
 import com.github.sandin.miniperf.server.data.DataSource;
 import com.github.sandin.miniperf.server.monitor.AppListMonitor;
 import com.github.sandin.miniperf.server.monitor.BatteryMonitor;
+import com.github.sandin.miniperf.server.monitor.BatteryTemperatureMonitor;
+import com.github.sandin.miniperf.server.monitor.CpuIdleMonitor;
 import com.github.sandin.miniperf.server.monitor.CpuTemperatureMonitor;
 import com.github.sandin.miniperf.server.monitor.GpuFreqMonitor;
 import com.github.sandin.miniperf.server.monitor.GpuUsageMonitor;
 import com.github.sandin.miniperf.server.monitor.MemoryMonitor;
 import com.github.sandin.miniperf.server.monitor.NetworkMonitor;
 import com.github.sandin.miniperf.server.monitor.PerformanceMonitor;
+import com.github.sandin.miniperf.server.monitor.ProcessGroupMonitor;
+import com.github.sandin.miniperf.server.monitor.ProcessMemoryCollector;
+import com.github.sandin.miniperf.server.monitor.RssMonitor;
+import com.github.sandin.miniperf.server.monitor.SchedLatencyMonitor;
 import com.github.sandin.miniperf.server.monitor.ScreenshotMonitor;
+import com.github.sandin.miniperf.server.monitor.SystemMemoryMonitor;
 import com.github.sandin.miniperf.server.proto.AppInfo;
 import com.github.sandin.miniperf.server.proto.CheckDeviceRsp;
+import com.github.sandin.miniperf.server.proto.CpuIdle;
 import com.github.sandin.miniperf.server.proto.EmptyRsp;
 import com.github.sandin.miniperf.server.proto.GetAppInfoRsp;
 import com.github.sandin.miniperf.server.proto.GetBatteryInfoRsp;
@@ -36,10 +44,15 @@ import com.github.sandin.miniperf.server.proto.MiniPerfServerProtocol;
 import com.github.sandin.miniperf.server.proto.Network;
 import com.github.sandin.miniperf.server.proto.Power;
 import com.github.sandin.miniperf.server.proto.ProcessFoundNTF;
+import com.github.sandin.miniperf.server.proto.ProcessGroup;
+import com.github.sandin.miniperf.server.proto.ProcessMemory;
 import com.github.sandin.miniperf.server.proto.ProcessNotFoundNTF;
 import com.github.sandin.miniperf.server.proto.ProfileReq;
 import com.github.sandin.miniperf.server.proto.ProfileRsp;
+import com.github.sandin.miniperf.server.proto.RssSample;
+import com.github.sandin.miniperf.server.proto.SchedLatency;
 import com.github.sandin.miniperf.server.proto.StopProfileRsp;
+import com.github.sandin.miniperf.server.proto.SystemMemory;
 import com.github.sandin.miniperf.server.proto.Temp;
 import com.github.sandin.miniperf.server.proto.ToggleInterestingFiledNTF;
 import com.github.sandin.miniperf.server.server.SocketServer;
@@ -49,6 +62,7 @@ import com.github.sandin.miniperf.server.util.AdbUtils;
 import com.github.sandin.miniperf.server.util.AndroidProcessUtils;
 import com.github.sandin.miniperf.server.util.ArgumentParser;
 import com.github.sandin.miniperf.server.util.ConvertUtils;
+import com.github.sandin.miniperf.server.util.CpuTopology;
 import com.github.sandin.miniperf.server.util.ReadSystemInfoUtils;
 
 import java.io.IOException;
@@ -76,6 +90,7 @@ public class MiniPerfServer implements SocketServer.Callback {
 
     @Nullable
     private MemoryMonitor mMemoryMonitor;
+    private final ProcessMemoryCollector mProcessMemoryCollector = new ProcessMemoryCollector();
 
     @Nullable
     private BatteryMonitor mBatteryMonitor;
@@ -161,6 +176,7 @@ public class MiniPerfServer implements SocketServer.Callback {
         int pid = AndroidProcessUtils.getPid(mContext, packageName);
         int uid = AndroidProcessUtils.getUid(mContext, packageName);
         TargetApp targetApp = new TargetApp(packageName, pid);
+        targetApp.setUid(uid);
         String command = arguments.getAsString("command", null);
         if (command != null) {
             switch (command) {
@@ -219,6 +235,46 @@ public class MiniPerfServer implements SocketServer.Callback {
                     System.out.println(power.getVoltage());
                     System.out.println(Build.BRAND);
                     break;
+                case "batterytemp":
+                    BatteryTemperatureMonitor batteryTemperatureMonitor = new BatteryTemperatureMonitor();
+                    System.out.println("battery temperature : " + batteryTemperatureMonitor.collect(targetApp, System.currentTimeMillis(), null).getTemperature());
+                    batteryTemperatureMonitor.close();
+                    break;
+                case "process":
+                    ProcessGroupMonitor processGroupMonitor = new ProcessGroupMonitor(mContext);
+                    while (true) {
+                        ProcessGroup processGroup = processGroupMonitor.collect(targetApp, System.currentTimeMillis(), null);
+                        System.out.println("process group : " + processGroup);
+                        Thread.sleep(1000);
+                    }
+                case "sched":
+                    SchedLatencyMonitor schedLatencyMonitor = new SchedLatencyMonitor();
+                    while (true) {
+                        SchedLatency schedLatency = schedLatencyMonitor.collect(targetApp, System.currentTimeMillis(), null);
+                        System.out.println("sched latency : " + schedLatency);
+                        Thread.sleep(200);
+                    }
+                case "idle":
+                    CpuIdleMonitor cpuIdleMonitor = new CpuIdleMonitor();
+                    while (true) {
+                        CpuIdle cpuIdle = cpuIdleMonitor.collect(targetApp, System.currentTimeMillis(), null);
+                        System.out.println("cpu idle : " + cpuIdle);
+                        Thread.sleep(1000);
+                    }
+                case "rss":
+                    RssMonitor rssMonitor = new RssMonitor();
+                    while (true) {
+                        RssSample rssSample = rssMonitor.collect(targetApp, System.currentTimeMillis(), null);
+                        System.out.println("rss : " + rssSample);
+                        Thread.sleep(1000);
+                    }
+                case "sysmem":
+                    SystemMemoryMonitor systemMemoryMonitor = new SystemMemoryMonitor();
+                    while (true) {
+                        SystemMemory systemMemory = systemMemoryMonitor.collect(targetApp, System.currentTimeMillis(), null);
+                        System.out.println("system memory : " + systemMemory);
+                        Thread.sleep(1000);
+                    }
                 case "alive":
 //                    while (true) {
 //                        boolean appIsRunning = AndroidProcessUtils.checkAppIsRunning(mContext, packageName);
@@ -297,13 +353,12 @@ public class MiniPerfServer implements SocketServer.Callback {
 
     private byte[] handleGetCpuMaxFreqReq() {
         GetCpuMaxFreqRsp.Builder builder = GetCpuMaxFreqRsp.newBuilder();
-        int cores = Runtime.getRuntime().availableProcessors();
-        for (int i = 0; i < cores; i++) {
-            //khz
-            String minFreqPath = "/sys/devices/system/cpu/cpu" + i + "/cpufreq/cpuinfo_min_freq";
-            String maxFreqPath = "/sys/devices/system/cpu/cpu" + i + "/cpufreq/cpuinfo_max_freq";
-            int minFreq = Integer.parseInt(ReadSystemInfoUtils.readInfoFromSystemFile(minFreqPath).get(0));
-            int maxFreq = Integer.parseInt(ReadSystemInfoUtils.readInfoFromSystemFile(maxFreqPath).get(0));
+        CpuTopology topology = CpuTopology.getInstance();
+        for (int i = 0; i < topology.getCoreCount(); i++) {
+            //khz, cores of a cluster share the policy's frequencies, it also works when the core is offline
+            CpuTopology.Cluster cluster = topology.getClusterOfCpu(i);
+            int minFreq = cluster != null ? (int) cluster.minFreq : 0;
+            int maxFreq = cluster != null ? (int) cluster.maxFreq : 0;
             builder.addMinFreq(ConvertUtils.kHz2MHz(minFreq));
             builder.addMaxFreq(ConvertUtils.kHz2MHz(maxFreq));
         }
@@ -340,6 +395,7 @@ public class MiniPerfServer implements SocketServer.Callback {
         TargetApp targetApp = new TargetApp();
         String packageName = request.getProfileApp().getAppInfo().getPackageName();
         targetApp.setPackageName(packageName);
+        targetApp.setLayerNames(request.getLayerNamesList());
         List<ProfileReq.DataType> dataTypes = request.getDataTypesList();
         Log.i(TAG, "recv profile data types : " + dataTypes.toString());
         int errorCode = 0;
@@ -371,6 +427,7 @@ public class MiniPerfServer implements SocketServer.Callback {
         int pid = AndroidProcessUtils.getPid(mContext, packageName);
         Log.d(TAG, "application pid is : " + pid);
         targetApp.setPid(pid);
+        targetApp.setUid(AndroidProcessUtils.getUid(mContext, packageName));
         PerformanceMonitor performanceMonitor = new PerformanceMonitor(mContext, 1000, 2000);
         session = SessionManager.getInstance().createSession(clientConnection, performanceMonitor, targetApp, dataTypes);
 //        new Thread() {
@@ -405,6 +462,15 @@ public class MiniPerfServer implements SocketServer.Callback {
     }
 
     private byte[] handleGetMemoryUsageReq(GetMemoryUsageReq request) {
+        if (request.getPidsCount() > 0) {
+            try {
+                List<ProcessMemory> memories = mProcessMemoryCollector.collect(request.getPidsList());
+                return MiniPerfServerProtocol.newBuilder().setGetMemoryUsageRsp(GetMemoryUsageRsp.newBuilder().addAllProcessMemories(memories)).build().toByteArray();
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+            return null;
+        }
         if (mMemoryMonitor == null) {
             mMemoryMonitor = new MemoryMonitor();
         }
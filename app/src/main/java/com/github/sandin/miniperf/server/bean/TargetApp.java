@@ -1,13 +1,23 @@
 package com.github.sandin.miniperf.server.bean;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 
 public class TargetApp implements Serializable {
 
     private int pid;
 
+    private int uid = -1;
+
     private String packageName;
 
+    /**
+     * layers of which the fps are tracked, empty to use the top ranked candidates
+     */
+    private List<String> layerNames = new ArrayList<>();
+
     public TargetApp() {
     }
 
@@ -24,6 +34,14 @@ public class TargetApp implements Serializable {
         this.pid = pid;
     }
 
+    public int getUid() {
+        return uid;
+    }
+
+    public void setUid(int uid) {
+        this.uid = uid;
+    }
+
     public String getPackageName() {
         return packageName;
     }
@@ -32,11 +50,21 @@ public class TargetApp implements Serializable {
         this.packageName = packageName;
     }
 
+    public List<String> getLayerNames() {
+        return layerNames;
+    }
+
+    public void setLayerNames(List<String> layerNames) {
+        this.layerNames = new ArrayList<>(new LinkedHashSet<>(layerNames));
+    }
+
     @Override
     public String toString() {
         return "TargetApp{" +
                 "pid=" + pid +
+                ", uid=" + uid +
                 ", packageName='" + packageName + '\'' +
+                ", layerNames=" + layerNames +
                 '}';
     }
 }
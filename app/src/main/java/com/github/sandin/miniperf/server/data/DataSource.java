@@ -57,6 +57,10 @@ public final class DataSource {
             "/sys/class/power_supply/battery/voltage_now"
     };
 
+    public static final String CHARGE_COUNTER_SYSTEM_FILE_PATH = "/sys/class/power_supply/battery/charge_counter";
+
+    public static final String BATTERY_TEMPERATURE_SYSTEM_FILE_PATH = "/sys/class/power_supply/battery/temp";
+
     public static final String[] GPU_USAGE_SYSTEM_FILE_PATHS = {
             "/sys/class/kgsl/kgsl-3d0/gpubusy",//高通常见
             "/sys/kernel/gpu/gpu_busy"
@@ -70,5 +74,7 @@ public final class DataSource {
 
     public static final String NETWORK_SYSTEM_FILE_PATHS = "/proc/net/xt_qtaguid/stats";
 
+    public static final String NETWORK_DEV_FILE_PATH = "/proc/net/dev";
+
 
 }
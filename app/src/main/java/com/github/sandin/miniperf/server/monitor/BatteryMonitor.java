@@ -3,28 +3,75 @@ package com.github.sandin.miniperf.server.monitor;
 import android.content.Context;
 import android.os.BatteryManager;
 import android.os.Build;
+import android.os.SystemClock;
 import android.util.Log;
 
-import androidx.annotation.RequiresApi;
 import androidx.annotation.VisibleForTesting;
 
 import com.github.sandin.miniperf.server.bean.TargetApp;
 import com.github.sandin.miniperf.server.data.DataSource;
 import com.github.sandin.miniperf.server.proto.Power;
+import com.github.sandin.miniperf.server.proto.PowerSource;
 import com.github.sandin.miniperf.server.proto.ProfileNtf;
 import com.github.sandin.miniperf.server.proto.ProfileReq;
-import com.github.sandin.miniperf.server.util.ConvertUtils;
+import com.github.sandin.miniperf.server.util.BatteryUnits;
+import com.github.sandin.miniperf.server.util.EnergyIntegrator;
+import com.github.sandin.miniperf.server.util.ProcFileReader;
 import com.github.sandin.miniperf.server.util.ReadSystemInfoUtils;
 
+import java.io.Closeable;
 import java.util.List;
 import java.util.Map;
 
-public class BatteryMonitor implements IMonitor<Power> {
+/**
+ * Battery Monitor
+ * <p>
+ * current_now, voltage_now and charge_counter of /sys/class/power_supply/battery are kept opened and parsed in place,
+ * BatteryManager and `dumpsys battery` are only used if the sysfs nodes can not be read.
+ * <p>
+ * The voltage unit(uV/mV) is unambiguous from a single value. The current follows the kernel ABI(uA) and is only taken
+ * as mA if voltage_now is in mV and the current never exceeds 10A in mA, see {@link BatteryUnits}. BatteryManager
+ * documents uA. The power is integrated in the raw current unit and converted when reported, so the session energy is
+ * still right if a large current changes the unit.
+ * <p>
+ * With a sample interval, current and voltage are sampled in a thread and the power is integrated into the energy of
+ * each tick and of the whole session.
+ */
+public class BatteryMonitor implements IMonitor<Power>, Closeable {
 
     private static final String TAG = "BatteryMonitor";
+
+    public static final long DEFAULT_SAMPLE_INTERVAL_MS = 200;
+
+    /**
+     * voltage from dumpsys changes slowly, do not run it at every sample
+     */
+    private static final long DUMPSYS_VOLTAGE_INTERVAL_MS = 10000;
+
     private final BatteryManager mBatteryManager;
     //collect data from server or dex or app, default use dex
     private String mSource;
+    private final long mSampleIntervalMs;
+
+    private final ProcFileReader mCurrentReader;
+    private final ProcFileReader mVoltageReader;
+    private final ProcFileReader mChargeReader;
+    private final PowerSource mPowerSource;
+    private int mCurrentUnit = BatteryUnits.UNIT_UNKNOWN;
+    private int mVoltageUnit = BatteryUnits.UNIT_UNKNOWN;
+    private long mMaxRawCurrent = 0;
+
+    private int mDumpVoltage = 0;
+    private long mDumpVoltageTime = -1;
+
+    private Thread mSampleThread;
+    private volatile boolean mSampling = false;
+
+    private final EnergyIntegrator mIntegrator = new EnergyIntegrator();
+    private long mRawCurrent; // uA or mA, last sample
+    private float mVoltage; // mV, last sample
+    private long mStartCharge = -1; // raw charge_counter
+    private long mCharge = -1;
 
     /**
      * Constructor
@@ -34,14 +81,45 @@ public class BatteryMonitor implements IMonitor<Power> {
     }
 
     /**
-     * Constructor
+     * Constructor, sample only when collecting
      *
      * @param source data source
      */
     public BatteryMonitor(Context context, String source) {
-        mBatteryManager = (BatteryManager) context.getSystemService(Context.BATTERY_SERVICE);
+        this(context, source, 0);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param source           data source
+     * @param sampleIntervalMs interval of sampling between the ticks(ms), 0 to sample only when collecting
+     */
+    public BatteryMonitor(Context context, String source, long sampleIntervalMs) {
+        this(context, source, sampleIntervalMs, DataSource.CURRENT_SYSTEM_FILE_PATHS[0],
+                DataSource.VOLTAGE_SYSTEM_FILE_PATHS[0], DataSource.CHARGE_COUNTER_SYSTEM_FILE_PATH);
+    }
+
+    @VisibleForTesting
+    BatteryMonitor(Context context, String source, long sampleIntervalMs,
+                   String currentPath, String voltagePath, String chargePath) {
+        mBatteryManager = context != null ? (BatteryManager) context.getSystemService(Context.BATTERY_SERVICE) : null;
 //        this.mBatteryManager = (BatteryManager) ServiceManager.getService(Context.BATTERY_SERVICE);
         this.mSource = source;
+        mSampleIntervalMs = sampleIntervalMs;
+        mCurrentReader = new ProcFileReader(currentPath, 64);
+        mVoltageReader = new ProcFileReader(voltagePath, 64);
+        mChargeReader = new ProcFileReader(chargePath, 64);
+        if (mCurrentReader.read() && mVoltageReader.read()) {
+            mPowerSource = PowerSource.POWER_SUPPLY_SYSFS;
+        } else if (mBatteryManager != null && Build.VERSION.SDK_INT >= 21) {
+            mPowerSource = PowerSource.BATTERY_SERVICE;
+            mCurrentReader.close();
+            mVoltageReader.close();
+        } else {
+            mPowerSource = PowerSource.POWER_SOURCE_NONE;
+        }
+        Log.i(TAG, "power source: " + mPowerSource);
     }
 
     /**
@@ -55,89 +133,155 @@ public class BatteryMonitor implements IMonitor<Power> {
         sb.append("[Power");
         sb.append(", current=").append(power.getCurrent());
         sb.append(", voltage=").append(power.getVoltage());
+        sb.append(", power=").append(power.getPower());
+        sb.append(", energy=").append(power.getEnergy());
+        sb.append(", sessionEnergy=").append(power.getSessionEnergy());
+        sb.append(", sessionPower=").append(power.getSessionPower());
+        sb.append(", sessionCharge=").append(power.getSessionCharge());
         sb.append("]");
         return sb.toString();
     }
 
     /**
-     * get voltage from dump
+     * get voltage from dump, cached for {@link #DUMPSYS_VOLTAGE_INTERVAL_MS}
      */
-    @VisibleForTesting
-    private int getVoltageFromDump() {
-        int voltage = 0;
+    private int getVoltageFromDump(long now) {
+        if (mDumpVoltageTime >= 0 && now - mDumpVoltageTime < DUMPSYS_VOLTAGE_INTERVAL_MS) {
+            return mDumpVoltage;
+        }
+        mDumpVoltageTime = now;
         List<String> content = ReadSystemInfoUtils.readInfoFromDumpsys("battery", new String[0]);
-        if (content.size() > 0) {
-            for (String line : content) {
-                if (line.startsWith("voltage:"))
-                    voltage = Integer.parseInt(line.substring(8).trim());
+        for (String line : content) {
+            line = line.trim();
+            if (line.startsWith("voltage:")) {
+                try {
+                    mDumpVoltage = Integer.parseInt(line.substring(8).trim());
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "bad voltage line: " + line);
+                }
+                break;
             }
         }
-        return voltage;
+        return mDumpVoltage;
     }
 
-    private Power getPowerInfoFromServer() {
-        int voltage = 0;
-        int current = 0;
-        List<String> currentContent = ReadSystemInfoUtils.readInfoFromSystemFile(DataSource.CURRENT_SYSTEM_FILE_PATHS);
-        List<String> voltageContent = ReadSystemInfoUtils.readInfoFromSystemFile(DataSource.VOLTAGE_SYSTEM_FILE_PATHS);
-        if (currentContent.size() > 0 && voltageContent.size() > 0) {
-            voltage = ConvertUtils.micro2Milli(Integer.parseInt(voltageContent.get(0)));
-            current = ConvertUtils.micro2Milli(Math.abs(Integer.parseInt(currentContent.get(0))));
+    /**
+     * Calibrate the current unit with a new sample
+     *
+     * @param raw absolute value of current_now
+     */
+    private void calibrateCurrentUnit(long raw) {
+        mMaxRawCurrent = Math.max(mMaxRawCurrent, raw);
+        // BatteryManager documents uA
+        int voltageUnit = mPowerSource == PowerSource.POWER_SUPPLY_SYSFS ? mVoltageUnit : BatteryUnits.UNIT_UNKNOWN;
+        int unit = BatteryUnits.currentUnit(mMaxRawCurrent, voltageUnit);
+        if (unit != mCurrentUnit) {
+            mCurrentUnit = unit;
+            Log.i(TAG, "current unit: " + (unit == BatteryUnits.UNIT_MICRO ? "uA" : "mA") + ", max=" + mMaxRawCurrent);
         }
-        return Power.newBuilder().setCurrent(current).setVoltage(voltage).build();
     }
 
-    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-    private Power getPowerInfoFromApp() {
-        int current = ConvertUtils.micro2Milli(Math.abs(mBatteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CURRENT_NOW)));
-        int voltage = 0; //FIXME: mContext.registerReceiver(null, new IntentFilter("android.intent.action.BATTERY_CHANGED")).getIntExtra("voltage", -1);
-        return Power.newBuilder().setCurrent(current).setVoltage(voltage).build();
+    /**
+     * @return mA per raw current unit
+     */
+    private float getCurrentScale() {
+        return mCurrentUnit == BatteryUnits.UNIT_MILLI ? 1 : 0.001f;
     }
 
-    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-    @VisibleForTesting
-    private Power getPowerInfoFromDex() {
-        int originCurrent = mBatteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CURRENT_NOW);
-        System.out.println("origin current info : " + originCurrent);
-        Log.i(TAG, "origin current info : " + originCurrent);
-        originCurrent = Math.abs(originCurrent);
-        int current = 0;
-        if (originCurrent <= 10000) {
-            current = originCurrent;
+    private float toMilliVolt(long raw) {
+        if (mVoltageUnit == BatteryUnits.UNIT_UNKNOWN) {
+            mVoltageUnit = BatteryUnits.voltageUnit(raw);
+            if (mVoltageUnit == BatteryUnits.UNIT_UNKNOWN) {
+                return 0;
+            }
+            Log.i(TAG, "voltage unit: " + (mVoltageUnit == BatteryUnits.UNIT_MICRO ? "uV" : "mV") + ", origin=" + raw);
+        }
+        return mVoltageUnit == BatteryUnits.UNIT_MICRO ? raw / 1000f : raw;
+    }
+
+    /**
+     * Sample current and voltage once and integrate the power
+     *
+     * @return success/fail
+     */
+    private synchronized boolean sample() {
+        long now = SystemClock.elapsedRealtime();
+        if (mPowerSource == PowerSource.POWER_SUPPLY_SYSFS) {
+            if (!mCurrentReader.read() || !mVoltageReader.read()) {
+                return false;
+            }
+            mVoltage = toMilliVolt(mVoltageReader.nextLong(0));
+            mRawCurrent = Math.abs(mCurrentReader.nextLong(0));
+        } else if (mPowerSource == PowerSource.BATTERY_SERVICE) {
+            mVoltage = getVoltageFromDump(now);
+            mRawCurrent = Math.abs(mBatteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CURRENT_NOW));
         } else {
-            current = ConvertUtils.micro2Milli(originCurrent);
+            return false;
         }
-        Log.i(TAG, "collect current : " + current);
-        int voltage = getVoltageFromDump();
-        Log.i(TAG, "collect voltage : " + voltage);
-        return Power.newBuilder().setCurrent(current).setVoltage(voltage).build();
+        if (mChargeReader.read()) {
+            mCharge = mChargeReader.nextLong(-1);
+            if (mStartCharge < 0) {
+                mStartCharge = mCharge;
+            }
+        }
+        calibrateCurrentUnit(mRawCurrent);
+        mIntegrator.add(now, mRawCurrent * mVoltage / 1000f); // mW if the current is in mA, scaled when reported
+        return true;
+    }
+
+    private void startSampling() {
+        mSampling = true;
+        mSampleThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (mSampling) {
+                    try {
+                        Thread.sleep(mSampleIntervalMs);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    sample();
+                }
+            }
+        }, "BatterySampler");
+        mSampleThread.setDaemon(true);
+        mSampleThread.start();
     }
 
     @Override
     public Power collect(TargetApp targetApp, long timestamp, ProfileNtf.Builder data) throws Exception {
         Log.v(TAG, "collect battery data: timestamp=" + timestamp);
-        Log.i(TAG, "phone version is : " + Build.VERSION.SDK_INT);
-        if (Build.VERSION.SDK_INT < 21) {
-            return Power.getDefaultInstance();
+        if (mSampleIntervalMs > 0 && mSampleThread == null) {
+            startSampling();
         }
         Power power;
-        Log.v(TAG, "now data source is + " + mSource);
-//        switch (mSource) {
-//            case "server":
-//                power = getPowerInfoFromServer();
-//                break;
-//            case "app":
-//                power = getPowerInfoFromApp();
-//                break;
-//            default:
-//                power = getPowerInfoFromDex();
-//                break;
-//        }
-        power = getPowerInfoFromDex();
+        synchronized (this) {
+            if (!sample()) {
+                return Power.getDefaultInstance();
+            }
+            float scale = getCurrentScale();
+            Power.Builder builder = Power.newBuilder()
+                    .setCurrent(Math.round(mRawCurrent * scale))
+                    .setVoltage(Math.round(mVoltage))
+                    .setPower(mIntegrator.getTickPower() * scale)
+                    .setEnergy(mIntegrator.getTickEnergy() * scale)
+                    .setSessionEnergy((float) (mIntegrator.getSessionEnergy() * scale / 3600))
+                    .setSessionPower(mIntegrator.getSessionPower() * scale)
+                    .setSessionDuration(mIntegrator.getSessionDuration())
+                    .setSampleCount(mIntegrator.getTickSampleCount())
+                    .setSource(mPowerSource);
+            if (mStartCharge >= 0 && mCharge >= 0) {
+                // charge_counter is in the unit of current_now: uAh or mAh
+                long charge = mStartCharge - mCharge;
+                builder.setSessionCharge(charge * scale);
+            }
+            power = builder.build();
+            // the sample of this tick also starts the next one
+            mIntegrator.endTick();
+        }
         if (data != null)
             data.setPower(power);
         Log.v(TAG, dumpPower(power));
-        System.out.println(dumpPower(power));
         return power;
     }
 
@@ -145,4 +289,16 @@ public class BatteryMonitor implements IMonitor<Power> {
     public void setInterestingFields(Map<ProfileReq.DataType, Boolean> dataTypes) {
         // pass
     }
+
+    @Override
+    public synchronized void close() {
+        mSampling = false;
+        if (mSampleThread != null) {
+            mSampleThread.interrupt();
+            mSampleThread = null;
+        }
+        mCurrentReader.close();
+        mVoltageReader.close();
+        mChargeReader.close();
+    }
 }
@@ -0,0 +1,99 @@
+package com.github.sandin.miniperf.server.monitor;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.github.sandin.miniperf.server.bean.TargetApp;
+import com.github.sandin.miniperf.server.data.DataSource;
+import com.github.sandin.miniperf.server.proto.BatteryTemp;
+import com.github.sandin.miniperf.server.proto.ProfileNtf;
+import com.github.sandin.miniperf.server.proto.ProfileReq;
+import com.github.sandin.miniperf.server.util.ProcFileReader;
+import com.github.sandin.miniperf.server.util.ReadSystemInfoUtils;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Battery Temperature Monitor
+ * <p>
+ * /sys/class/power_supply/battery/temp(0.1℃) is kept opened and parsed in place. If it can not be read, the
+ * temperature line of `dumpsys battery`(also 0.1℃) is used, at most once every {@link #DUMPSYS_INTERVAL_MS}.
+ */
+public class BatteryTemperatureMonitor implements IMonitor<BatteryTemp>, Closeable {
+    private static final String TAG = "BatteryTempMonitor";
+
+    /**
+     * battery temperature changes slowly, do not run dumpsys at every tick
+     */
+    private static final long DUMPSYS_INTERVAL_MS = 10000;
+
+    private final ProcFileReader mTempReader;
+
+    private int mDumpTemp = 0; // 0.1℃
+    private long mDumpTime = -1;
+
+    public BatteryTemperatureMonitor() {
+        this(DataSource.BATTERY_TEMPERATURE_SYSTEM_FILE_PATH);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param path path of the temp node
+     */
+    public BatteryTemperatureMonitor(String path) {
+        mTempReader = new ProcFileReader(path, 64);
+    }
+
+    /**
+     * @return temperature(0.1℃), 0 if unknown
+     */
+    private int getTemperatureFromDump() {
+        long now = SystemClock.elapsedRealtime();
+        if (mDumpTime >= 0 && now - mDumpTime < DUMPSYS_INTERVAL_MS) {
+            return mDumpTemp;
+        }
+        mDumpTime = now;
+        List<String> content = ReadSystemInfoUtils.readInfoFromDumpsys("battery", new String[0]);
+        for (String line : content) {
+            line = line.trim();
+            if (line.startsWith("temperature:")) {
+                try {
+                    mDumpTemp = Integer.parseInt(line.substring(12).trim());
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "bad temperature line: " + line);
+                }
+                break;
+            }
+        }
+        return mDumpTemp;
+    }
+
+    @Override
+    public BatteryTemp collect(TargetApp targetApp, long timestamp, ProfileNtf.Builder data) throws Exception {
+        Log.v(TAG, "collect battery temperature data: timestamp=" + timestamp);
+        int temp; // 0.1℃
+        if (mTempReader.read()) {
+            temp = (int) mTempReader.nextLong(0);
+        } else {
+            temp = getTemperatureFromDump();
+        }
+        BatteryTemp batteryTemp = BatteryTemp.newBuilder().setTemperature(temp / 10f).build();
+        if (data != null) {
+            data.setBatteryTemp(batteryTemp);
+        }
+        return batteryTemp;
+    }
+
+    @Override
+    public void setInterestingFields(Map<ProfileReq.DataType, Boolean> dataTypes) {
+        // pass
+    }
+
+    @Override
+    public void close() {
+        mTempReader.close();
+    }
+}
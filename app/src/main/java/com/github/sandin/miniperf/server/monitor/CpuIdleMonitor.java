@@ -0,0 +1,214 @@
+package com.github.sandin.miniperf.server.monitor;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.github.sandin.miniperf.server.bean.TargetApp;
+import com.github.sandin.miniperf.server.proto.CoreIdle;
+import com.github.sandin.miniperf.server.proto.CpuIdle;
+import com.github.sandin.miniperf.server.proto.IdleState;
+import com.github.sandin.miniperf.server.proto.ProfileNtf;
+import com.github.sandin.miniperf.server.proto.ProfileReq;
+import com.github.sandin.miniperf.server.util.CpuTopology;
+import com.github.sandin.miniperf.server.util.ProcFileReader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CPU Idle Monitor
+ * <p>
+ * Per core C-state residency from /sys/devices/system/cpu/cpuN/cpuidle/stateK:
+ * name(WFI, C1...), latency(exit latency, us), time(total residency, us), usage(entry count)
+ * <p>
+ * The states are discovered when the monitor is created, time and usage files are kept opened. Cores without a cpuidle
+ * directory(offline at startup) are probed again when /sys/devices/system/cpu/online changes.
+ */
+public class CpuIdleMonitor implements IMonitor<CpuIdle>, Closeable {
+    private static final String TAG = "CpuIdleMonitor";
+
+    private final String mRootPath;
+    private final List<Core> mCores = new ArrayList<>();
+    /**
+     * cores without a cpuidle directory yet
+     */
+    private final List<Integer> mMissingCores = new ArrayList<>();
+    private final ProcFileReader mOnlineReader;
+    private String mOnline;
+    private long mLastTime = -1;
+
+    static class State {
+        String name;
+        int latency; // us
+        ProcFileReader time;
+        ProcFileReader usage;
+        long lastTime = -1; // us
+        long lastUsage;
+
+        void close() {
+            time.close();
+            usage.close();
+        }
+    }
+
+    static class Core {
+        int cpu;
+        State[] states;
+    }
+
+    public CpuIdleMonitor() {
+        this(CpuTopology.CPU_SYSTEM_PATH, CpuTopology.getInstance().getCoreCount());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param rootPath  root of the cpu sysfs, "/sys/devices/system/cpu"
+     * @param coreCount count of cores
+     */
+    public CpuIdleMonitor(String rootPath, int coreCount) {
+        mRootPath = rootPath;
+        mOnlineReader = new ProcFileReader(rootPath + "/online", 64);
+        mOnline = readOnline();
+        for (int cpu = 0; cpu < coreCount; cpu++) {
+            Core core = probe(cpu);
+            if (core != null) {
+                mCores.add(core);
+            } else {
+                mMissingCores.add(cpu);
+            }
+        }
+        Log.i(TAG, "cpuidle cores: " + mCores.size());
+    }
+
+    /**
+     * Discover the states of a core
+     *
+     * @return null if the core has no cpuidle directory
+     */
+    private Core probe(int cpu) {
+        String idlePath = mRootPath + "/cpu" + cpu + "/cpuidle";
+        List<State> states = new ArrayList<>();
+        for (int k = 0; new File(idlePath + "/state" + k).exists(); k++) { // from shallow to deep
+            String statePath = idlePath + "/state" + k;
+            State state = new State();
+            ProcFileReader reader = new ProcFileReader(statePath + "/name", 32);
+            state.name = reader.read() ? reader.nextString() : "state" + k;
+            reader.close();
+            reader = new ProcFileReader(statePath + "/latency", 32);
+            state.latency = reader.read() ? (int) reader.nextLong(0) : 0;
+            reader.close();
+            state.time = new ProcFileReader(statePath + "/time", 32);
+            state.usage = new ProcFileReader(statePath + "/usage", 32);
+            states.add(state);
+        }
+        if (states.isEmpty()) {
+            return null;
+        }
+        Core core = new Core();
+        core.cpu = cpu;
+        core.states = states.toArray(new State[0]);
+        return core;
+    }
+
+    /**
+     * @return content of the online file("0-3,6"), "" if unknown
+     */
+    private String readOnline() {
+        return mOnlineReader.read() ? mOnlineReader.nextString() : "";
+    }
+
+    /**
+     * Probe the missing cores again if the online cores changed
+     */
+    private void probeMissingCores() {
+        if (mMissingCores.isEmpty()) {
+            return;
+        }
+        String online = readOnline();
+        if (online.equals(mOnline)) {
+            return;
+        }
+        mOnline = online;
+        for (int i = mMissingCores.size() - 1; i >= 0; i--) {
+            Core core = probe(mMissingCores.get(i));
+            if (core == null) {
+                continue;
+            }
+            mMissingCores.remove(i);
+            int index = 0;
+            while (index < mCores.size() && mCores.get(index).cpu < core.cpu) {
+                index++;
+            }
+            mCores.add(index, core); // sorted by cpu
+            Log.i(TAG, "cpuidle core found: cpu" + core.cpu);
+        }
+    }
+
+    @Override
+    public CpuIdle collect(TargetApp targetApp, long timestamp, ProfileNtf.Builder data) throws Exception {
+        Log.v(TAG, "collect cpu idle data: timestamp=" + timestamp);
+        probeMissingCores();
+        long now = SystemClock.elapsedRealtime();
+        long interval = mLastTime > 0 ? (now - mLastTime) * 1000 : 0; // us
+        mLastTime = now;
+
+        CpuIdle.Builder builder = CpuIdle.newBuilder();
+        for (Core core : mCores) {
+            CoreIdle.Builder coreBuilder = CoreIdle.newBuilder().setCpu(core.cpu);
+            long totalIdleTime = 0;
+            long totalUsage = 0;
+            long totalLatency = 0;
+            boolean valid = interval > 0;
+            for (State state : core.states) {
+                long time = state.time.read() ? state.time.nextLong(-1) : -1;
+                long usage = state.usage.read() ? state.usage.nextLong(-1) : -1;
+                if (time < 0 || usage < 0 || state.lastTime < 0) {
+                    valid = false;
+                } else {
+                    long deltaTime = time - state.lastTime;
+                    long deltaUsage = usage - state.lastUsage;
+                    totalIdleTime += deltaTime;
+                    totalUsage += deltaUsage;
+                    totalLatency += deltaUsage * state.latency;
+                    coreBuilder.addStates(IdleState.newBuilder()
+                            .setName(state.name)
+                            .setLatency(state.latency)
+                            .setResidency(interval > 0 ? Math.min(100f, deltaTime * 100f / interval) : 0)
+                            .setUsage((int) deltaUsage));
+                }
+                state.lastTime = time;
+                state.lastUsage = usage;
+            }
+            if (valid) {
+                coreBuilder.setIdle(Math.min(100f, totalIdleTime * 100f / interval));
+                coreBuilder.setAvgWakeLatency(totalUsage > 0 ? (float) totalLatency / totalUsage : 0);
+                builder.addCores(coreBuilder);
+            }
+        }
+
+        CpuIdle cpuIdle = builder.build();
+        if (data != null) {
+            data.setCpuIdle(cpuIdle);
+        }
+        return cpuIdle;
+    }
+
+    @Override
+    public void setInterestingFields(Map<ProfileReq.DataType, Boolean> dataTypes) {
+        // pass
+    }
+
+    @Override
+    public void close() {
+        for (Core core : mCores) {
+            for (State state : core.states) {
+                state.close();
+            }
+        }
+        mOnlineReader.close();
+    }
+}
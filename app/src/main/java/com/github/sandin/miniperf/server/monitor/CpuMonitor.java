@@ -1,29 +1,40 @@
 package com.github.sandin.miniperf.server.monitor;
 
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.github.sandin.miniperf.server.bean.CpuInfo;
 import com.github.sandin.miniperf.server.bean.TargetApp;
 import com.github.sandin.miniperf.server.proto.CoreUsage;
+import com.github.sandin.miniperf.server.proto.CpuCluster;
+import com.github.sandin.miniperf.server.proto.CpuClusterUsage;
 import com.github.sandin.miniperf.server.proto.CpuFreq;
+import com.github.sandin.miniperf.server.proto.CpuFreqResidency;
 import com.github.sandin.miniperf.server.proto.CpuUsage;
+import com.github.sandin.miniperf.server.proto.FreqResidency;
+import com.github.sandin.miniperf.server.proto.PageFault;
 import com.github.sandin.miniperf.server.proto.ProfileNtf;
 import com.github.sandin.miniperf.server.proto.ProfileReq;
+import com.github.sandin.miniperf.server.util.ConvertUtils;
+import com.github.sandin.miniperf.server.util.CpuTopology;
+import com.github.sandin.miniperf.server.util.ProcFileReader;
 import com.github.sandin.miniperf.server.util.ReadSystemInfoUtils;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.io.FileReader;
 
-public class CpuMonitor implements IMonitor<CpuInfo> {
+public class CpuMonitor implements IMonitor<CpuInfo>, Closeable {
 
     private static final String TAG = "CpuMonitor";
 
@@ -31,6 +42,11 @@ public class CpuMonitor implements IMonitor<CpuInfo> {
 
     private Map<ProfileReq.DataType, Boolean> mDataTypes = new HashMap<>();
 
+    private final ProcFileReader mVmstatReader = new ProcFileReader("/proc/vmstat", 8192);
+    private long mLastVmstatTime = -1;
+    private long mLastPgfault = -1;
+    private long mLastPgmajfault = -1;
+
     public CpuMonitor(int pid) {
         stat = new CPUStat(pid);
     }
@@ -63,9 +79,91 @@ public class CpuMonitor implements IMonitor<CpuInfo> {
         cpuInfo.setCpuFreq(b.build());
         data.setCpuFreq(b.build());
 
+        if (isDataTypeEnabled(ProfileReq.DataType.CPU_FREQ_RESIDENCY) && stat.have_time_in_state) {
+            data.setCpuFreqResidency(getFreqResidency());
+        }
+        if (isDataTypeEnabled(ProfileReq.DataType.CPU_CLUSTER)) {
+            data.setCpuClusterUsage(getClusterUsage());
+        }
+        if (isDataTypeEnabled(ProfileReq.DataType.PAGE_FAULT)) {
+            data.setPageFault(getPageFault());
+        }
+
         return cpuInfo;
     }
 
+    /**
+     * Fault rates of the app(from the /proc/<pid>/stat read of the usage) and of the system(/proc/vmstat)
+     */
+    private PageFault getPageFault() {
+        PageFault.Builder builder = PageFault.newBuilder()
+                .setMinorFaults(stat.minflt_rate)
+                .setMajorFaults(stat.majflt_rate);
+        long now = SystemClock.elapsedRealtime();
+        if (mVmstatReader.read()) {
+            long pgfault = mVmstatReader.findLine("pgfault ") ? mVmstatReader.nextLong(-1) : -1;
+            long pgmajfault = mVmstatReader.findLine("pgmajfault ") ? mVmstatReader.nextLong(-1) : -1;
+            long interval = now - mLastVmstatTime;
+            if (mLastVmstatTime > 0 && interval > 0) {
+                if (pgfault >= mLastPgfault && mLastPgfault >= 0) {
+                    builder.setSystemFaults((pgfault - mLastPgfault) * 1000f / interval);
+                }
+                if (pgmajfault >= mLastPgmajfault && mLastPgmajfault >= 0) {
+                    builder.setSystemMajorFaults((pgmajfault - mLastPgmajfault) * 1000f / interval);
+                }
+            }
+            mLastPgfault = pgfault;
+            mLastPgmajfault = pgmajfault;
+            mLastVmstatTime = now;
+        }
+        return builder.build();
+    }
+
+
+    /**
+     * Usage, frequency and normalized usage of each cluster
+     */
+    private CpuClusterUsage getClusterUsage() {
+        CpuClusterUsage.Builder builder = CpuClusterUsage.newBuilder();
+        for (CpuTopology.Cluster cluster : stat.topology.getClusters()) {
+            CpuCluster.Builder clusterBuilder = CpuCluster.newBuilder()
+                    .setType(cluster.type)
+                    .setCapacity(cluster.capacity)
+                    .setMaxFreq(ConvertUtils.kHz2MHz((int) cluster.maxFreq))
+                    .setCurFreq(ConvertUtils.kHz2MHz((int) stat.cluster_freq[cluster.index]))
+                    .setOnlineCpus(stat.cluster_online[cluster.index])
+                    .setUsage(stat.cluster_usage[cluster.index])
+                    .setNormalizedUsage(stat.cluster_normalized_usage[cluster.index]);
+            for (int cpu : cluster.cpus) {
+                clusterBuilder.addCpus(cpu);
+            }
+            builder.addClusters(clusterBuilder);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Per-frequency residency of the last interval, grouped by cpufreq policy
+     */
+    private CpuFreqResidency getFreqResidency() {
+        CpuFreqResidency.Builder builder = CpuFreqResidency.newBuilder();
+        for (int p = 0; p < stat.time_in_state_tables.size(); ++p) {
+            TimeInStateTable table = stat.time_in_state_tables.get(p);
+            if (table.freqs == null) continue;
+            FreqResidency.Builder residency = FreqResidency.newBuilder();
+            for (int i = 0; i < stat.cores; ++i) {
+                if (stat.time_in_state_index[i] == p) {
+                    residency.addCpus(i);
+                }
+            }
+            for (int i = 0; i < table.freqs.length; ++i) {
+                residency.addFreq(ConvertUtils.kHz2MHz((int) table.freqs[i]));
+                residency.addTime((int) (table.delta_times[i] * 10)); // 10ms -> ms
+            }
+            builder.addPolicies(residency);
+        }
+        return builder.build();
+    }
 
 //    public void kill(String packagename) throws NameNotFoundException {
 //        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
@@ -129,9 +227,94 @@ public class CpuMonitor implements IMonitor<CpuInfo> {
         long total_time;
     }
 
+    /**
+     * time_in_state of a cpufreq policy, shared by all cores of the policy
+     * <p>
+     * The frequency column never changes after boot, so it is parsed only once,
+     * then only the time column is parsed into a primitive array.
+     */
+    static class TimeInStateTable {
+        final String policy_path;
+        final ProcFileReader reader;
+        long[] freqs; // kHz
+        long[] times; // 10ms
+        long[] last_times;
+        long[] delta_times; // per-frequency residency of the last interval
+        boolean has_last;
+        long weighted_sum;
+        long total_time;
+
+        TimeInStateTable(String policy_path) {
+            this.policy_path = policy_path;
+            this.reader = new ProcFileReader(policy_path + "/stats/time_in_state", 1024);
+        }
+
+        private boolean parse_freqs() {
+            int rows = 0;
+            do {
+                if (reader.nextLong(-1) < 0) break;
+                rows++;
+            } while (reader.nextLine());
+            if (rows == 0) return false;
+            freqs = new long[rows];
+            times = new long[rows];
+            last_times = new long[rows];
+            delta_times = new long[rows];
+            has_last = false;
+            reader.rewind();
+            for (int i = 0; i < rows; ++i) {
+                freqs[i] = reader.nextLong(0);
+                reader.nextLine();
+            }
+            reader.rewind();
+            return true;
+        }
+
+        boolean read() {
+            if (!reader.read()) return false;
+            if (freqs == null && !parse_freqs()) return false;
+            if (!read_times()) {
+                // rows changed, parse the frequency column again, the residency history restarts
+                reader.rewind();
+                if (!parse_freqs() || !read_times()) {
+                    freqs = null;
+                    return false;
+                }
+            }
+            return weighted_sum != 0 && total_time != 0;
+        }
+
+        private boolean read_times() {
+            long[] t = last_times;
+            last_times = times;
+            times = t;
+            long sum = 0;
+            long total = 0;
+            for (int i = 0; i < freqs.length; ++i) {
+                if (!reader.skipFields(1)) {
+                    return false;
+                }
+                long time = reader.nextLong(0);
+                times[i] = time;
+                delta_times[i] = has_last ? time - last_times[i] : 0;
+                sum += freqs[i] * time;
+                total += time;
+                reader.nextLine();
+            }
+            if (reader.nextLong(-1) >= 0) return false; // more rows
+            has_last = true;
+            weighted_sum = sum;
+            total_time = total;
+            return true;
+        }
+    }
+
     static class AppStat {
         public long utime;
         public long stime;
+        public long minflt;
+        public long majflt;
+        public long time; // elapsedRealtime(ms) of the read
     }
 
     static class CPUStat {
@@ -150,24 +333,37 @@ public class CpuMonitor implements IMonitor<CpuInfo> {
         AppStat current_app;
         TimeInState[] last_time_in_state;
         TimeInState[] current_time_in_state;
+        List<TimeInStateTable> time_in_state_tables; // one per cluster
+        int[] time_in_state_index; // core -> time_in_state_tables
         long[] current_freq;
 
+        CpuTopology topology;
+        boolean[] online;
+        ProcFileReader[] cluster_cur_freq_reader;
+        long[] cluster_freq;
+        int[] cluster_online;
+        float[] cluster_usage;
+        float[] cluster_normalized_usage;
+
         float usage;
         float[] usage_per_cpu;
         float app_usage;
+        float minflt_rate; // per second
+        float majflt_rate; // per second
         
         float normalized_usage;
         float[] normalized_usage_per_cpu;
         float normalized_app_usage;
 
-        File cur_freq_file[];
 				
         private static final String[] EMPTY_STRING_ARRAY = new String[0];
 
         public CPUStat(int pid) {
 
             this.pid = pid;
-            cores = Runtime.getRuntime().availableProcessors();
+            topology = CpuTopology.getInstance();
+            cores = topology.getCoreCount();
+            online = new boolean[cores];
             last = new ProcStat();
             current = new ProcStat();
             // System.out.println("[DEBUG] cores = " + cores);
@@ -192,36 +388,42 @@ public class CpuMonitor implements IMonitor<CpuInfo> {
                 current_time_in_state[i] = new TimeInState();
             }
 
+            List<CpuTopology.Cluster> clusters = topology.getClusters();
+            int cluster_count = clusters.size();
+            time_in_state_tables = new ArrayList<>();
+            cluster_cur_freq_reader = new ProcFileReader[cluster_count];
+            for (CpuTopology.Cluster cluster : clusters) {
+                time_in_state_tables.add(new TimeInStateTable(cluster.policyPath));
+                cluster_cur_freq_reader[cluster.index] = new ProcFileReader(cluster.policyPath + "/scaling_cur_freq", 32);
+            }
+            time_in_state_index = new int[cores];
+            for (int i = 0; i < cores; ++i) {
+                CpuTopology.Cluster cluster = topology.getClusterOfCpu(i);
+                time_in_state_index[i] = cluster != null ? cluster.index : -1;
+            }
+            cluster_freq = new long[cluster_count];
+            cluster_online = new int[cluster_count];
+            cluster_usage = new float[cluster_count];
+            cluster_normalized_usage = new float[cluster_count];
+            Log.i(TAG, "cpu topology: " + topology);
+
             max_freq = new long[cores];
             current_freq = new long[cores];
 
             allow_normalization = true;
             int offline = 0;
             for (int i = 0; i < cores; ++i) {
-                String Path="/sys/devices/system/cpu/cpu" + i + "/cpufreq/cpuinfo_max_freq";
-                List<String> str = ReadSystemInfoUtils.readInfoFromSystemFile(Path);
-                Log.i(TAG, "CPUStat123: "+"   "+i+"    "+str.toString());
-                if(str.size()>0){
-                    long tmp = Long.valueOf(str.get(0));
-                    max_freq[i] = tmp;
-                    Log.i(TAG, "CPUStat123433:"+ max_freq[i]);
-                }else{
+                CpuTopology.Cluster cluster = topology.getClusterOfCpu(i);
+                if (cluster != null && cluster.maxFreq > 0) {
+                    max_freq[i] = cluster.maxFreq;
+                } else {
                     offline++;
-                    //Log.i(TAG, "CPUStat1234:"+offline);
                 }
             }
-            Log.i(TAG, "CPUStat: 11111111");
             if (offline == cores)
                 allow_normalization = false;
 
             normalized_usage_per_cpu = new float[cores];
-
-            cur_freq_file = new File[cores];
-
-            for (int i = 0; i < cores; ++i){
-                String filename = "/sys/devices/system/cpu/cpu" + i + "/cpufreq/scaling_cur_freq";
-                cur_freq_file[i] = new File(filename);
-            }
 						
             have_time_in_state = true; // guess
             have_current_freq = true; // guess
@@ -300,8 +502,11 @@ public class CpuMonitor implements IMonitor<CpuInfo> {
             if (pos + 2 >= line.length()) return false;
             line = line.substring(pos + 2);
             String[] tokens = apache_split(line);
+            current_app.minflt = Long.parseLong(tokens[7]);
+            current_app.majflt = Long.parseLong(tokens[9]);
             current_app.utime = Long.parseLong(tokens[11]);
             current_app.stime = Long.parseLong(tokens[12]);
+            current_app.time = SystemClock.elapsedRealtime();
             // System.out.println("[DEBUG] current: utime=" + current_app.utime + "; stime=" + current_app.stime);
             return true;
         }
@@ -340,37 +545,16 @@ public class CpuMonitor implements IMonitor<CpuInfo> {
         }
 
         private int _read_all_cur_freq() {
+            // cores of a cluster share the policy's frequency, read it once per cluster
             int cores_read = 0;
-            FileInputStream files[] = new FileInputStream[cores];
-            for(int i=0; i<cores; ++i){
-                try {
-                    files[i] = new FileInputStream(cur_freq_file[i]);
-                } catch (FileNotFoundException e) {
-                    //e.printStackTrace();
-                }
-            }
-
-            for(int i=0; i<cores; ++i){
-                byte[] buf = new byte[20];
-                current_freq[i] = 0;
-                if (files[i] == null) continue;
-                try {
-                    int read = files[i].read(buf);
-                    current_freq[i] = bytes2int(buf, read);
-                    cores_read ++;
-                } catch (IOException e) {
-                    //e.printStackTrace();
-                }
+            for (int c = 0; c < cluster_cur_freq_reader.length; ++c){
+                ProcFileReader reader = cluster_cur_freq_reader[c];
+                cluster_freq[c] = reader.read() ? reader.nextLong(0) : 0;
             }
-
             for (int i = 0; i < cores; ++i){
-                if (files[i] != null){
-                    try {
-                        files[i].close();
-                    } catch (IOException e) {
-                        //e.printStackTrace();
-                    }
-                }
+                int c = time_in_state_index[i];
+                current_freq[i] = c >= 0 ? cluster_freq[c] : 0;
+                if (current_freq[i] > 0) cores_read ++;
             }
 
             for (int i = 0; i < cores; ++i){
@@ -413,25 +597,16 @@ public class CpuMonitor implements IMonitor<CpuInfo> {
             return true;
         }
 
-        private boolean _read_time_in_state(int x){
-            String tis = "/sys/devices/system/cpu/cpu"+ x + "/cpufreq/stats/time_in_state";
-            List<String> str = ReadSystemInfoUtils.readInfoFromSystemFile(tis);
-            long sum = 0;
-            long total_tic = 0;
-            if(str.size()>0){
-                for(String line:str){
-                    String[] toks = apache_split(line);
-                    if (toks.length < 2) break;
-                    sum += Long.parseLong(toks[0]) * Long.parseLong(toks[1]);
-                    total_tic += Long.parseLong(toks[1]);
-                }
-            } else{
-                return false;
+        private boolean _read_time_in_state(){
+            for (TimeInStateTable table : time_in_state_tables){
+                if (!table.read()) return false;
+            }
+            for (int x = 0; x < cores; ++x){
+                if (time_in_state_index[x] < 0) return false;
+                TimeInStateTable table = time_in_state_tables.get(time_in_state_index[x]);
+                current_time_in_state[x].weighted_sum = table.weighted_sum;
+                current_time_in_state[x].total_time = table.total_time;
             }
-            if (sum == 0 || total_tic == 0) return false;
-            current_time_in_state[x].weighted_sum = sum;
-            current_time_in_state[x].total_time = total_tic;
-            // System.out.println("[DEBUG] total_tic[" + x + "] = " + total_tic);
             return true;
         }
 
@@ -482,6 +657,9 @@ public class CpuMonitor implements IMonitor<CpuInfo> {
                 return -1;
             }
             int x = Integer.parseInt(tokens[0].substring(3));
+            if (x >= cores){
+                return -1;
+            }
 
             current_per_cpu[x].user = Long.parseLong(tokens[1]);
             current_per_cpu[x].nice = Long.parseLong(tokens[2]);
@@ -522,7 +700,8 @@ public class CpuMonitor implements IMonitor<CpuInfo> {
             
             try{
                 if (! _read_cpu(str1)) return false;
-                boolean[] processed = new boolean[cores];
+                boolean[] processed = online;
+                Arrays.fill(processed, false);
                 for (int i =1;i<str1.size();i++){
                     int x = _read_cpux(str1.get(i));
                     if(x<0) break;
@@ -549,14 +728,9 @@ public class CpuMonitor implements IMonitor<CpuInfo> {
             } finally {
             }
 
-            if (allow_normalization) {
-                for(int i = 0; i < cores; ++i){
-                    if (have_time_in_state){
-                        if (!_read_time_in_state(i)){
-                            have_time_in_state = false;
-                            break;
-                        }
-                    }
+            if (allow_normalization && have_time_in_state) {
+                if (!_read_time_in_state()){
+                    have_time_in_state = false;
                 }
             }
 
@@ -614,6 +788,11 @@ public class CpuMonitor implements IMonitor<CpuInfo> {
                   app_usage = ((current_app.stime + current_app.utime) - (last_app.stime + last_app.utime)) * 100f / (current.total - last.total);
               }
             }
+            long app_interval = current_app.time - last_app.time;
+            if (last_app.time > 0 && app_interval > 0 && current_app.minflt >= last_app.minflt && current_app.majflt >= last_app.majflt) {
+                minflt_rate = (current_app.minflt - last_app.minflt) * 1000f / app_interval;
+                majflt_rate = (current_app.majflt - last_app.majflt) * 1000f / app_interval;
+            }
             if (allow_normalization) {
                 float den = 0;
                 float num = 0;
@@ -656,7 +835,34 @@ public class CpuMonitor implements IMonitor<CpuInfo> {
                 }
             }
 
-            // 2. current <-> last
+            // 2. per cluster
+            for (int c = 0; c < cluster_usage.length; ++c){
+                CpuTopology.Cluster cluster = topology.getClusters().get(c);
+                long busy = 0;
+                long total = 0;
+                int online_count = 0;
+                for (int i : cluster.cpus){
+                    if (i >= cores || !online[i]) continue;
+                    online_count++;
+                    busy += current_per_cpu[i].u2 - last_per_cpu[i].u2;
+                    total += current_per_cpu[i].total - last_per_cpu[i].total;
+                }
+                cluster_online[c] = online_count;
+                cluster_usage[c] = total > 0 ? busy * 100.0f / total : 0.0f;
+                float ratio = 1;
+                int first = cluster.cpus[0];
+                if (have_time_in_state && first < cores){
+                    long dt = current_time_in_state[first].total_time - last_time_in_state[first].total_time;
+                    ratio = dt > 0 && cluster.maxFreq > 0
+                            ? (current_time_in_state[first].weighted_sum - last_time_in_state[first].weighted_sum) * 1f / (dt * cluster.maxFreq)
+                            : 0.0f;
+                } else if (have_current_freq && cluster.maxFreq > 0){
+                    ratio = cluster_freq[c] * 1f / cluster.maxFreq;
+                }
+                cluster_normalized_usage[c] = cluster_usage[c] * ratio;
+            }
+
+            // 3. current <-> last
             {
                 ProcStat t = last;
                 last = current;
@@ -707,6 +913,19 @@ public class CpuMonitor implements IMonitor<CpuInfo> {
                 System.out.println("");
             }
         }
+
+        void close() {
+            if (time_in_state_tables != null) {
+                for (TimeInStateTable table : time_in_state_tables) {
+                    table.reader.close();
+                }
+            }
+            if (cluster_cur_freq_reader != null) {
+                for (ProcFileReader reader : cluster_cur_freq_reader) {
+                    if (reader != null) reader.close();
+                }
+            }
+        }
     }
 
     private boolean isDataTypeEnabled(ProfileReq.DataType dataType) {
@@ -718,5 +937,11 @@ public class CpuMonitor implements IMonitor<CpuInfo> {
         mDataTypes.clear();
         mDataTypes.putAll(dataTypes);
     }
+
+    @Override
+    public void close() {
+        stat.close();
+        mVmstatReader.close();
+    }
 }
 
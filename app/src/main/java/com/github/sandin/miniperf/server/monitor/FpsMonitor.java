@@ -1,20 +1,32 @@
 package com.github.sandin.miniperf.server.monitor;
 
 import android.os.Build;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.github.sandin.miniperf.server.bean.FpsInfo;
 import com.github.sandin.miniperf.server.bean.JankInfo;
 import com.github.sandin.miniperf.server.bean.TargetApp;
 import com.github.sandin.miniperf.server.proto.FPS;
+import com.github.sandin.miniperf.server.proto.FramePacing;
 import com.github.sandin.miniperf.server.proto.FrameTime;
+import com.github.sandin.miniperf.server.proto.FrameTimePercentile;
+import com.github.sandin.miniperf.server.proto.LayerFps;
 import com.github.sandin.miniperf.server.proto.ProfileNtf;
 import com.github.sandin.miniperf.server.proto.ProfileReq;
+import com.github.sandin.miniperf.server.util.FramePacingStats;
+import com.github.sandin.miniperf.server.util.FrameTimeHistogram;
+import com.github.sandin.miniperf.server.util.JankDetector;
+import com.github.sandin.miniperf.server.util.LongRingBuffer;
 import com.github.sandin.miniperf.server.util.ReadSystemInfoUtils;
+import com.github.sandin.miniperf.server.util.SurfaceFlingerLatencyParser;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -23,31 +35,193 @@ import java.util.TreeSet;
 import androidx.annotation.NonNull;
 
 //TODO bug
-public class FpsMonitor implements IMonitor<FpsInfo> {
+public class FpsMonitor implements IMonitor<FpsInfo>, Closeable {
     private static final String TAG = "FpsMonitor";
     private static final boolean DEBUG = false;
     private final static String SERVICE_NAME = "SurfaceFlinger";
+    private static final int FRAME_TIMES_CAPACITY = 1024;
+    private static final long STUTTER_WINDOW_US = 5000000;
+    /**
+     * SurfaceFlinger keeps the latency data of the last 128 frames
+     */
+    private static final int LATENCY_HISTORY_FRAMES = 127;
+    private static final long DEFAULT_REFRESH_PERIOD = 16666667; // ns
+    private static final long MIN_POLL_INTERVAL_MS = 100;
+    private static final long MAX_POLL_INTERVAL_MS = 1000;
+    /**
+     * min interval of `dumpsys SurfaceFlinger --list` when the layer has no new frames
+     */
+    private static final long LAYER_LIST_CHECK_INTERVAL_MS = 2000;
+    /**
+     * count of the top ranked candidate layers which are tracked when the client does not give the layers
+     */
+    private static final int MAX_TRACKED_LAYERS = 3;
+    /**
+     * max age of the cached `dumpsys SurfaceFlinger --list` result used to pick the tracked layers
+     */
+    private static final long LAYER_CANDIDATES_MAX_AGE_MS = 5000;
+    /**
+     * cached layer, it is kept until it is gone or the layers of the app change while it has no new frames
+     */
     private String mLayerName;
+    private int mLayerListChecksum = 0;
+    private long mLastLayerListCheckTime = 0;
     private long mRefreshPeriod;
     private long mLatestSeen = 0;
-    private List<Long> mElapsedTimes = new ArrayList<>();
+    /**
+     * present timestamps(ns) newer than the previous poll
+     */
+    private final LongRingBuffer mElapsedTimes = new LongRingBuffer(FRAME_TIMES_CAPACITY);
+    /**
+     * mLastTime followed by the new present timestamps(ns)
+     */
+    private final LongRingBuffer mNewFrameTimes = new LongRingBuffer(FRAME_TIMES_CAPACITY);
+    /**
+     * jank/bigJank and the stutter of the last 5 seconds
+     */
+    private final JankDetector mJankDetector = new JankDetector(STUTTER_WINDOW_US, FRAME_TIMES_CAPACITY);
+    /**
+     * frame times(us) of this tick and of the whole session
+     */
+    private final FrameTimeHistogram mTickHistogram = new FrameTimeHistogram();
+    private final FrameTimeHistogram mSessionHistogram = new FrameTimeHistogram();
+    /**
+     * frame pacing of this tick
+     */
+    private final FramePacingStats mFramePacing = new FramePacingStats();
     private long mLastTime = 0;
+    /**
+     * the last frame of the previous tick followed by the present timestamps(ns) polled since then
+     */
+    private final LongRingBuffer mTickFrameTimes = new LongRingBuffer(FRAME_TIMES_CAPACITY * 2);
+    private Thread mPollThread;
+    private volatile boolean mPolling = false;
+    private volatile long mPollIntervalMs = MIN_POLL_INTERVAL_MS;
+
+    /**
+     * layers of {@link ProfileReq.DataType#LAYER_FPS}
+     */
+    private final Map<String, LayerTracker> mLayerTrackers = new LinkedHashMap<>();
+    private List<String> mLayerCandidates;
+    private long mLayerCandidatesTime = 0;
+    private int mPollRound = 0;
+
+    private boolean mOverlap;
+    /**
+     * the layer being read is the one of {@link #getNewFrameTimes(String)}
+     */
+    private boolean mSamplingPrimary;
+    /**
+     * tracker of the layer being read, null if it is not tracked
+     */
+    private LayerTracker mSamplingTracker;
+    private final SurfaceFlingerLatencyParser mLatencyParser = new SurfaceFlingerLatencyParser(new SurfaceFlingerLatencyParser.Listener() {
+        @Override
+        public void onRefreshPeriod(long refreshPeriod) {
+            mRefreshPeriod = refreshPeriod;
+        }
+
+        @Override
+        public void onFrame(long desiredPresentTime, long actualPresentTime, long frameReadyTime) {
+            if (mSamplingTracker != null) {
+                mSamplingTracker.sample(frameReadyTime, actualPresentTime);
+            }
+            if (mSamplingPrimary && sample(frameReadyTime, actualPresentTime)) {
+                mOverlap = true;
+            }
+        }
+    });
 
     private Map<ProfileReq.DataType, Boolean> mDataTypes = new HashMap<>();
 
 
-    private List<String> getFramesDataFromDumpsys(@NonNull String layerName) {
-        List<String> timestamps = new LinkedList<>();
-        //单位为ns
-        timestamps = ReadSystemInfoUtils.readInfoFromDumpsys(SERVICE_NAME, new String[]{"--latency", layerName});
-        if (timestamps.size() > 0) {
-            mRefreshPeriod = Long.parseLong(timestamps.get(0));
-            //Log.i(TAG, "refresh period is " + mRefreshPeriod);
+    /**
+     * Frames of a tracked layer
+     */
+    private static class LayerTracker {
+        final String layerName;
+        /**
+         * the last frame of the previous tick followed by the present timestamps(ns) polled since then
+         */
+        final LongRingBuffer tickFrameTimes = new LongRingBuffer(FRAME_TIMES_CAPACITY * 2);
+        final JankDetector jankDetector = new JankDetector(STUTTER_WINDOW_US, FRAME_TIMES_CAPACITY);
+        long latestSeen = 0;
+        /**
+         * round of the last poll, a layer is read at most once per round
+         */
+        int pollRound = -1;
+        /**
+         * latestSeen before the last poll, the count of its new frames and whether it overlapped with the previous one
+         */
+        long pollStartTime = 0;
+        int newFrames = 0;
+        boolean overlap = false;
+
+        LayerTracker(String layerName) {
+            this.layerName = layerName;
         }
-        if (DEBUG) {
-            Log.i(TAG, "collect frame data from dumpsys success : " + timestamps.toString());
+
+        void beginPoll(int round) {
+            pollRound = round;
+            pollStartTime = latestSeen;
+            newFrames = 0;
+            overlap = false;
+        }
+
+        void sample(long readyTimeStamp, long presentTimeStamp) {
+            if (presentTimeStamp == Long.MAX_VALUE || readyTimeStamp == Long.MAX_VALUE || presentTimeStamp < latestSeen) {
+                return;
+            }
+            if (presentTimeStamp == latestSeen) {
+                overlap = true;
+                return;
+            }
+            tickFrameTimes.add(presentTimeStamp);
+            latestSeen = presentTimeStamp;
+            newFrames++;
+        }
+
+        void endPoll() {
+            if (pollStartTime == 0 && !tickFrameTimes.isEmpty()) {
+                // the first poll only has the history of SurfaceFlinger, start from its last frame
+                long lastTime = tickFrameTimes.last();
+                tickFrameTimes.clear();
+                tickFrameTimes.add(lastTime);
+                newFrames = 0;
+            }
+        }
+    }
+
+    /**
+     * Parse `dumpsys SurfaceFlinger --latency <layerName>`(ns) straight from the pipe,
+     * the frames are also sampled into the tracker of the layer if it is tracked
+     *
+     * @param primary whether it is the layer of {@link #getNewFrameTimes(String)}
+     * @return count of lines, 0 if failed
+     */
+    private int readFramesDataFromDumpsys(@NonNull String layerName, boolean primary) {
+        mOverlap = false;
+        mSamplingPrimary = primary;
+        mSamplingTracker = mLayerTrackers.get(layerName);
+        if (mSamplingTracker != null) {
+            mSamplingTracker.beginPoll(mPollRound);
+        }
+        InputStream in = ReadSystemInfoUtils.openDumpsys(SERVICE_NAME, new String[]{"--latency", layerName});
+        if (in == null) {
+            return 0;
+        }
+        try {
+            return mLatencyParser.parse(in);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        } finally {
+            mSamplingTracker = null;
+            try {
+                in.close();
+            } catch (IOException ignore) {
+            }
         }
-        return timestamps;
     }
 
     /*
@@ -67,32 +241,51 @@ public class FpsMonitor implements IMonitor<FpsInfo> {
         }
     }
 
-    private List<Long> getNewFrameTimes(@NonNull String packageName) {
-        List<Long> frameTimes = null;
+    private LongRingBuffer getNewFrameTimes(@NonNull String packageName) {
+        LongRingBuffer frameTimes = null;
 
         // first try the last layer which has some data
         if (mLayerName != null) {
             frameTimes = getNewFrameTimesForLayer(mLayerName);
         }
 
-        // the first time or no refresh data(fps=0) then try to find the top layer
+        // the first time or no refresh data(fps=0) then try to find the top layer,
+        // at most once per LAYER_LIST_CHECK_INTERVAL_MS, a static screen only costs the `--latency` call above
         if (frameTimes == null || frameTimes.size() <= 1 /* 里面总是有一个lastTime，所以不是 == 0，而是 <= 1 */) {
-            List<String> layerCandidates = getLayerCandidates(packageName);
-            if (layerCandidates.size() > 0) {
-                for (String layerName : layerCandidates) {
-                    frameTimes = getNewFrameTimesForLayer(layerName);
-                    if (frameTimes != null && frameTimes.size() > 1) {
-                        mLayerName = layerName;
-                        break;
+            long now = SystemClock.uptimeMillis();
+            if (mLastLayerListCheckTime == 0 || now - mLastLayerListCheckTime >= LAYER_LIST_CHECK_INTERVAL_MS) {
+                mLastLayerListCheckTime = now;
+                List<String> layerCandidates = getLayerCandidates(packageName);
+                int checksum = layerCandidates.hashCode();
+                boolean layerListChanged = checksum != mLayerListChecksum;
+                mLayerListChecksum = checksum;
+                if (mLayerName != null && !layerCandidates.contains(mLayerName)) {
+                    Log.i(TAG, "layer is gone: " + mLayerName);
+                    mLayerName = null;
+                }
+                // the cached layer is still there and nothing changed: the screen is static
+                if (layerListChanged || mLayerName == null) {
+                    if (layerCandidates.size() > 0) {
+                        for (String layerName : layerCandidates) {
+                            if (layerName.equals(mLayerName)) {
+                                continue; // already polled
+                            }
+                            frameTimes = getNewFrameTimesForLayer(layerName);
+                            if (frameTimes != null && frameTimes.size() > 1) {
+                                Log.i(TAG, "switch layer: " + mLayerName + " -> " + layerName);
+                                mLayerName = layerName;
+                                break;
+                            }
+                        }
+                    } else {
+                        Log.e(TAG, "Can not found any layer for package " + packageName);
                     }
                 }
-            } else {
-                Log.e(TAG, "Can not found any layer for package " + packageName);
             }
         }
 
         if (frameTimes != null && frameTimes.size() > 0) {
-            mLastTime = frameTimes.get(frameTimes.size() - 1);
+            mLastTime = frameTimes.last();
         }
 
         return frameTimes;
@@ -156,139 +349,330 @@ public class FpsMonitor implements IMonitor<FpsInfo> {
         for (LayerCandidate candidate : candidates) {
             layers.add(candidate.layerName);
         }
+        mLayerCandidates = layers;
+        mLayerCandidatesTime = SystemClock.uptimeMillis();
         return layers;
     }
 
 
-    private List<Long> getNewFrameTimesForLayer(@NonNull String layerName) {
-        List<String> framesData = getFramesDataFromDumpsys(layerName);
+    private LongRingBuffer getNewFrameTimesForLayer(@NonNull String layerName) {
+        int lineCount = readFramesDataFromDumpsys(layerName, true);
         if (DEBUG) {
             Log.i(TAG, "Layer Name :  " + layerName);
-            Log.i(TAG, "frame times size :  " + framesData.size());
+            Log.i(TAG, "frame times size :  " + lineCount);
             Log.i(TAG, "now last time is : " + mLastTime);
         }
-        if (framesData.size() == 1) {
+        if (lineCount == 1) {
             Log.e(TAG, "can't get frames data !");
             return null;
         }
-        boolean overlap = false;
-        for (String line : framesData) {
-            String[] parts = line.split("\t");
-            if (parts.length == 3) {
-                //get frame times from dumpsys
-                if (sample(Long.parseLong(parts[2]), Long.parseLong(parts[1]))) {
-                    overlap = true;
-                }
-            }
-        }
-        if (!overlap) {
+        if (!mOverlap) {
             Log.e(TAG, "No overlap with previous poll, we missed some frames!");
         }
         if (DEBUG) {
             Log.i(TAG, "Elapsed times size : " + mElapsedTimes.size());
         }
-        List<Long> newFrameTimes = new ArrayList<>();
+        mNewFrameTimes.clear();
         if (mLastTime == 0) {
             if (mElapsedTimes.size() > 0) {
-                newFrameTimes.add(mElapsedTimes.get(mElapsedTimes.size() - 1));
+                mNewFrameTimes.add(mElapsedTimes.last());
             }
         } else {
-            newFrameTimes.add(mLastTime);
-            for (long time : mElapsedTimes) {
+            mNewFrameTimes.add(mLastTime);
+            for (int i = 0; i < mElapsedTimes.size(); i++) {
+                long time = mElapsedTimes.get(i);
                 if (time > mLastTime) {
-                    newFrameTimes.add(time);
+                    mNewFrameTimes.add(time);
                 }
             }
         }
-        return newFrameTimes;
+        return mNewFrameTimes;
     }
 
-    private JankInfo checkJank(List<Long> frameTimes) {
-        JankInfo jankInfo = new JankInfo();
-        int jank = 0;
-        int bigJank = 0;
-        long first_3s_frame_time = -1;
-        long first_2s_frame_time = -1;
-        long first_1s_frame_time = -1;
-        for (Long frameTime : frameTimes) {
-            Double time = (double) frameTime;
-            if (first_1s_frame_time != -1 && first_2s_frame_time != -1 && first_3s_frame_time != -1) {
-                double average = (first_1s_frame_time + first_2s_frame_time + first_3s_frame_time) / 3.0 * 2.0 + 2.0;
-                if ((average > 0) && (time > 8533.333333333333)) {
-                    jank++;
-                    if (time > 12700)
-                        bigJank++;
-                    first_1s_frame_time = -1;
-                    first_2s_frame_time = -1;
-                    first_3s_frame_time = -1;
+    /**
+     * Poll the new frames into {@link #mTickFrameTimes} and adapt the poll interval
+     */
+    private synchronized void poll(@NonNull TargetApp targetApp) {
+        mPollRound++;
+        boolean hasLastTime = mLastTime != 0;
+        LongRingBuffer frameTimes = getNewFrameTimes(targetApp.getPackageName());
+        mElapsedTimes.clear();
+        long layersPollInterval = pollLayers(targetApp);
+        if (frameTimes == null) {
+            mPollIntervalMs = Math.min(getNextPollInterval(0, 0, false), layersPollInterval);
+            return;
+        }
+        for (int i = 0; i < frameTimes.size(); i++) {
+            long time = frameTimes.get(i);
+            if (mTickFrameTimes.isEmpty() || time > mTickFrameTimes.last()) {
+                mTickFrameTimes.add(time);
+            }
+        }
+        int newFrames = frameTimes.size() - 1;
+        long duration = newFrames > 0 ? frameTimes.last() - frameTimes.first() : 0;
+        mPollIntervalMs = Math.min(getNextPollInterval(newFrames, duration, hasLastTime && newFrames > 0 && !mOverlap), layersPollInterval);
+    }
+
+    /**
+     * Poll the tracked layers, a layer which was already read by {@link #getNewFrameTimes(String)} in this round
+     * is not read again: SurfaceFlinger only dumps one layer per `--latency`, so that is the only call which can be shared
+     *
+     * @return next poll interval(ms) for the tracked layers
+     */
+    private long pollLayers(@NonNull TargetApp targetApp) {
+        if (!isDataTypeEnabled(ProfileReq.DataType.LAYER_FPS)) {
+            mLayerTrackers.clear();
+            return MAX_POLL_INTERVAL_MS;
+        }
+        updateTrackedLayers(targetApp);
+        long interval = MAX_POLL_INTERVAL_MS;
+        for (LayerTracker tracker : mLayerTrackers.values()) {
+            if (tracker.pollRound != mPollRound) {
+                readFramesDataFromDumpsys(tracker.layerName, false);
+            }
+            boolean hasLatestSeen = tracker.pollStartTime != 0;
+            tracker.endPoll();
+            long duration = tracker.newFrames > 0 ? tracker.latestSeen - tracker.pollStartTime : 0;
+            interval = Math.min(interval, getNextPollInterval(tracker.newFrames, duration, hasLatestSeen && tracker.newFrames > 0 && !tracker.overlap));
+        }
+        return interval;
+    }
+
+    /**
+     * The layers given by the client, or the top ranked candidates(the `--list` result is shared with {@link #getNewFrameTimes(String)})
+     */
+    private void updateTrackedLayers(@NonNull TargetApp targetApp) {
+        List<String> layerNames = targetApp.getLayerNames();
+        if (layerNames.isEmpty()) {
+            if (mLayerCandidates == null || SystemClock.uptimeMillis() - mLayerCandidatesTime >= LAYER_CANDIDATES_MAX_AGE_MS) {
+                getLayerCandidates(targetApp.getPackageName());
+            }
+            layerNames = mLayerCandidates.subList(0, Math.min(MAX_TRACKED_LAYERS, mLayerCandidates.size()));
+        }
+        if (mLayerTrackers.size() == layerNames.size() && mLayerTrackers.keySet().containsAll(layerNames)) {
+            return;
+        }
+        Map<String, LayerTracker> trackers = new LinkedHashMap<>();
+        for (String layerName : layerNames) {
+            LayerTracker tracker = mLayerTrackers.get(layerName);
+            trackers.put(layerName, tracker != null ? tracker : new LayerTracker(layerName));
+        }
+        mLayerTrackers.clear();
+        mLayerTrackers.putAll(trackers);
+        Log.i(TAG, "tracked layers: " + mLayerTrackers.keySet());
+    }
+
+    /**
+     * Poll at half of the time the latency history of SurfaceFlinger holds at the observed frame rate,
+     * and never slower than the time it holds at the refresh rate, so a static screen which starts to animate is not missed.
+     *
+     * @param newFrames count of the new frames of the last poll
+     * @param duration  duration of the new frames(ns)
+     * @param missed    the last poll did not overlap with the previous one
+     * @return next poll interval(ms)
+     */
+    private long getNextPollInterval(int newFrames, long duration, boolean missed) {
+        if (missed) {
+            return Math.max(MIN_POLL_INTERVAL_MS, mPollIntervalMs / 2);
+        }
+        long refreshPeriod = mRefreshPeriod > 0 ? mRefreshPeriod : DEFAULT_REFRESH_PERIOD;
+        long interval = Math.min(MAX_POLL_INTERVAL_MS, LATENCY_HISTORY_FRAMES * refreshPeriod * 8 / 10 / 1000000);
+        if (newFrames > 0 && duration > 0) {
+            long frameTime = duration / newFrames;
+            interval = Math.min(interval, LATENCY_HISTORY_FRAMES * frameTime / 2 / 1000000);
+        }
+        return Math.max(MIN_POLL_INTERVAL_MS, interval);
+    }
+
+    private void startPolling(@NonNull final TargetApp targetApp) {
+        mPolling = true;
+        mPollThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (mPolling) {
+                    try {
+                        Thread.sleep(mPollIntervalMs);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    try {
+                        poll(targetApp);
+                    } catch (Throwable e) {
+                        e.printStackTrace();
+                    }
                 }
-            } else {
-                first_3s_frame_time = first_2s_frame_time;
-                first_2s_frame_time = first_1s_frame_time;
-                first_1s_frame_time = frameTime;
             }
+        }, "FpsPoller");
+        mPollThread.setDaemon(true);
+        mPollThread.start();
+    }
+
+    @Override
+    public void close() {
+        mPolling = false;
+        if (mPollThread != null) {
+            mPollThread.interrupt();
+            mPollThread = null;
         }
-        jankInfo.setJank(jank);
-        jankInfo.setBigJank(bigJank);
-        return jankInfo;
     }
 
     @Override
     public FpsInfo collect(TargetApp targetApp, long timestamp, ProfileNtf.Builder data) throws Exception {
         //Log.i(TAG, "start collect fps info");
+        if (mPollThread == null) {
+            poll(targetApp);
+            startPolling(targetApp);
+        }
+        synchronized (this) {
+            FpsInfo fpsInfo = collectTick(data);
+            if (data != null && isDataTypeEnabled(ProfileReq.DataType.LAYER_FPS)) {
+                FPS.Builder fpsBuilder = data.hasFps() ? data.getFps().toBuilder() : FPS.newBuilder();
+                for (LayerTracker tracker : mLayerTrackers.values()) {
+                    fpsBuilder.addLayers(collectLayerTick(tracker));
+                }
+                data.setFps(fpsBuilder);
+            }
+            // the last frame of this tick is the start of the next tick
+            if (!mTickFrameTimes.isEmpty()) {
+                long lastTime = mTickFrameTimes.last();
+                mTickFrameTimes.clear();
+                mTickFrameTimes.add(lastTime);
+            }
+            return fpsInfo;
+        }
+    }
+
+    /**
+     * Aggregate the frames polled since the last tick
+     */
+    private FpsInfo collectTick(ProfileNtf.Builder data) {
         FpsInfo fpsInfo = new FpsInfo();
-        List<Long> newFrameTimes = getNewFrameTimes(targetApp.getPackageName());
-        if (newFrameTimes == null) {
+        LongRingBuffer newFrameTimes = mTickFrameTimes;
+        if (newFrameTimes.isEmpty()) {
             Log.w(TAG, "no refresh!");
             fpsInfo.setFps(FPS.newBuilder().build());
             fpsInfo.setFrameTime(FrameTime.newBuilder().build());
             return fpsInfo;
         }
         if (DEBUG) {
-            Log.i(TAG, "collect new frame times success : " + newFrameTimes.size() + " " + newFrameTimes);
+            Log.i(TAG, "collect new frame times success : " + newFrameTimes.size());
         }
 
 
-        List<Long> frameTimes = new LinkedList<>();
-        for (int i = 1; i < newFrameTimes.size(); i++) {
-            long nanoseconds = newFrameTimes.get(i) - newFrameTimes.get(i - 1);
-            frameTimes.add(nanoseconds / 1000 / 10); // ms * 100
+        if (mJankDetector.setRefreshPeriod(mRefreshPeriod)) {
+            Log.i(TAG, "refresh rate: " + mJankDetector.getRefreshRate());
+        }
+        mJankDetector.resetCounters();
+        mFramePacing.setRefreshPeriod(mRefreshPeriod > 0 ? mRefreshPeriod : DEFAULT_REFRESH_PERIOD);
+
+        int frameCount = Math.max(newFrameTimes.size() - 1, 0);
+        FrameTime.Builder frameTimeBuilder = FrameTime.newBuilder();
+        long prev = frameCount > 0 ? newFrameTimes.first() : 0;
+        for (int i = 0; i < frameCount; i++) {
+            long time = newFrameTimes.get(i + 1);
+            long us = (time - prev) / 1000;
+            frameTimeBuilder.addFrameTime(us / 10); // ms * 100
+            mTickHistogram.record(us);
+            mJankDetector.addFrame(us);
+            mFramePacing.addFrame(us);
+            prev = time;
         }
         //jank
-        JankInfo jankInfo = checkJank(frameTimes);
+        JankInfo jankInfo = new JankInfo();
+        jankInfo.setJank(mJankDetector.getJank());
+        jankInfo.setBigJank(mJankDetector.getBigJank());
 
-        float fps = frameTimes.size() > 0
-                ? (frameTimes.size())  /* frame count */ / ((newFrameTimes.get(newFrameTimes.size() - 1) - newFrameTimes.get(0)) / (float) 1e9) /* second */
+        float fps = frameCount > 0
+                ? frameCount  /* frame count */ / ((newFrameTimes.last() - newFrameTimes.first()) / (float) 1e9) /* second */
                 : 0;
+        FrameTime frameTime = frameTimeBuilder.build();
+        mSessionHistogram.add(mTickHistogram);
+        FrameTimePercentile percentile = getPercentile(mTickHistogram);
+        FrameTimePercentile sessionPercentile = getPercentile(mSessionHistogram);
+        mTickHistogram.reset();
+        FramePacing pacing = FramePacing.newBuilder()
+                .setFrameTimeMean((float) (mFramePacing.getMean() / 1000))
+                .setFrameTimeStdDev((float) (mFramePacing.getStdDev() / 1000))
+                .setCadence(mFramePacing.getCadence())
+                .setOffCadenceFrames(mFramePacing.getOffCadenceFrames())
+                .setLongFrames(mFramePacing.getLongFrames())
+                .setMaxLongFrameStreak(mFramePacing.getMaxLongFrameStreak())
+                .build();
+        mFramePacing.reset();
 
         if (DEBUG) {
             Log.i(TAG, "collect fps success : " + fps);
         }
 
-        fpsInfo.setFps(FPS.newBuilder().setFps(fps).build());
-        fpsInfo.setFrameTime(FrameTime.newBuilder().addAllFrameTime(frameTimes).build());
+        fpsInfo.setFps(FPS.newBuilder().setFps(fps).setPercentile(percentile).setSessionPercentile(sessionPercentile).build());
+        fpsInfo.setFrameTime(frameTime);
         if (data != null) {
             if (isDataTypeEnabled(ProfileReq.DataType.FPS)) {
-                data.setFps(FPS.newBuilder().setFps(fps).setJank(jankInfo.getJank()).setBigJank(jankInfo.getBigJank()));
+                data.setFps(FPS.newBuilder().setFps(fps).setJank(jankInfo.getJank()).setBigJank(jankInfo.getBigJank())
+                        .setStutter(mJankDetector.getStutter())
+                        .setMissedVsync(mJankDetector.getMissedVsync())
+                        .setRefreshRate(mJankDetector.getRefreshRate())
+                        .setPercentile(percentile)
+                        .setSessionPercentile(sessionPercentile)
+                        .setPacing(pacing));
             }
             if (isDataTypeEnabled(ProfileReq.DataType.FRAME_TIME)) {
-                data.setFrameTime(FrameTime.newBuilder().addAllFrameTime(frameTimes));
+                data.setFrameTime(frameTime);
             }
         }
         if (DEBUG) {
             Log.i(TAG, "collect fps info success : " + fpsInfo.toString());
         }
-        //clear cache
-        mElapsedTimes.clear();
         return fpsInfo;
     }
 
+    /**
+     * Aggregate the frames of a tracked layer polled since the last tick
+     */
+    private LayerFps collectLayerTick(LayerTracker tracker) {
+        LongRingBuffer frameTimes = tracker.tickFrameTimes;
+        JankDetector jankDetector = tracker.jankDetector;
+        jankDetector.setRefreshPeriod(mRefreshPeriod);
+        jankDetector.resetCounters();
+        int frameCount = Math.max(frameTimes.size() - 1, 0);
+        for (int i = 0; i < frameCount; i++) {
+            jankDetector.addFrame((frameTimes.get(i + 1) - frameTimes.get(i)) / 1000);
+        }
+        float fps = frameCount > 0 ? frameCount / ((frameTimes.last() - frameTimes.first()) / (float) 1e9) : 0;
+        if (!frameTimes.isEmpty()) {
+            long lastTime = frameTimes.last();
+            frameTimes.clear();
+            frameTimes.add(lastTime);
+        }
+        return LayerFps.newBuilder()
+                .setLayerName(tracker.layerName)
+                .setFps(fps)
+                .setJank(jankDetector.getJank())
+                .setBigJank(jankDetector.getBigJank())
+                .setStutter(jankDetector.getStutter())
+                .setMissedVsync(jankDetector.getMissedVsync())
+                .build();
+    }
+
+    private static FrameTimePercentile getPercentile(FrameTimeHistogram histogram) {
+        long p99 = histogram.getValueAtPercentile(99);
+        return FrameTimePercentile.newBuilder()
+                .setP50(histogram.getValueAtPercentile(50) / 1000f)
+                .setP90(histogram.getValueAtPercentile(90) / 1000f)
+                .setP99(p99 / 1000f)
+                .setP999(histogram.getValueAtPercentile(99.9) / 1000f)
+                .setMax(histogram.getMax() / 1000f)
+                .setLowFps(p99 > 0 ? 1e6f / p99 : 0)
+                .setFrameCount((int) histogram.getCount())
+                .build();
+    }
+
     private boolean isDataTypeEnabled(ProfileReq.DataType dataType) {
         return mDataTypes.containsKey(dataType) && mDataTypes.get(dataType);
     }
 
     @Override
-    public void setInterestingFields(Map<ProfileReq.DataType, Boolean> dataTypes) {
+    public synchronized void setInterestingFields(Map<ProfileReq.DataType, Boolean> dataTypes) {
         mDataTypes.clear();
         mDataTypes.putAll(dataTypes);
     }
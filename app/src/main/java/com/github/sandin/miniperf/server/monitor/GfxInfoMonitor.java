@@ -0,0 +1,117 @@
+package com.github.sandin.miniperf.server.monitor;
+
+import android.util.Log;
+
+import com.github.sandin.miniperf.server.bean.TargetApp;
+import com.github.sandin.miniperf.server.proto.FrameStage;
+import com.github.sandin.miniperf.server.proto.FrameStats;
+import com.github.sandin.miniperf.server.proto.ProfileNtf;
+import com.github.sandin.miniperf.server.proto.ProfileReq;
+import com.github.sandin.miniperf.server.util.GfxInfoFrameStatsParser;
+import com.github.sandin.miniperf.server.util.ReadSystemInfoUtils;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * GfxInfo Monitor
+ * <p>
+ * FPS and the per stage durations of HWUI frames from `dumpsys gfxinfo <packageName> framestats`,
+ * for apps which draw with views, games should use {@link FpsMonitor}.
+ * <p>
+ * https://developer.android.com/training/testing/performance#timing-info
+ */
+public class GfxInfoMonitor implements IMonitor<FrameStats> {
+    private static final String TAG = "GfxInfoMonitor";
+    private static final String SERVICE_NAME = "gfxinfo";
+
+    /**
+     * refresh period when the output has no FrameInterval column(before android 12)
+     */
+    private static final long DEFAULT_FRAME_INTERVAL = 16666667; // ns
+
+    /**
+     * frames are not continuous if there is no frame for this time(ns)
+     */
+    private static final long MAX_FRAME_GAP = 1000000000;
+
+    private final GfxInfoFrameStatsParser mParser = new GfxInfoFrameStatsParser();
+    private FrameStats.Builder mBuilder;
+    private int mJankFrames;
+    private long mFirstFrameCompleted;
+    private long mLastFrameCompleted;
+    private long mPrevLastFrameCompleted = 0;
+
+    private final GfxInfoFrameStatsParser.Listener mListener = new GfxInfoFrameStatsParser.Listener() {
+        @Override
+        public void onFrame(GfxInfoFrameStatsParser.Frame frame) {
+            long frameCompleted = frame.get(GfxInfoFrameStatsParser.FRAME_COMPLETED);
+            long end = Math.max(frameCompleted, frame.get(GfxInfoFrameStatsParser.GPU_COMPLETED));
+            long deadline = frame.get(GfxInfoFrameStatsParser.FRAME_DEADLINE);
+            if (deadline <= 0) {
+                long interval = frame.get(GfxInfoFrameStatsParser.FRAME_INTERVAL);
+                deadline = frame.get(GfxInfoFrameStatsParser.INTENDED_VSYNC) + (interval > 0 ? interval : DEFAULT_FRAME_INTERVAL);
+            }
+            if (end > deadline) {
+                mJankFrames++;
+            }
+            if (mFirstFrameCompleted == 0 || frameCompleted < mFirstFrameCompleted) {
+                mFirstFrameCompleted = frameCompleted;
+            }
+            mLastFrameCompleted = Math.max(mLastFrameCompleted, frameCompleted);
+
+            mBuilder.addFrames(FrameStage.newBuilder()
+                    .setTotal(toUs(frame.duration(GfxInfoFrameStatsParser.INTENDED_VSYNC, GfxInfoFrameStatsParser.FRAME_COMPLETED)))
+                    .setInput(toUs(frame.duration(GfxInfoFrameStatsParser.HANDLE_INPUT_START, GfxInfoFrameStatsParser.ANIMATION_START)))
+                    .setAnimation(toUs(frame.duration(GfxInfoFrameStatsParser.ANIMATION_START, GfxInfoFrameStatsParser.PERFORM_TRAVERSALS_START)))
+                    .setLayout(toUs(frame.duration(GfxInfoFrameStatsParser.PERFORM_TRAVERSALS_START, GfxInfoFrameStatsParser.DRAW_START)))
+                    .setDraw(toUs(frame.duration(GfxInfoFrameStatsParser.DRAW_START, GfxInfoFrameStatsParser.SYNC_QUEUED)))
+                    .setSync(toUs(frame.duration(GfxInfoFrameStatsParser.SYNC_START, GfxInfoFrameStatsParser.ISSUE_DRAW_COMMANDS_START)))
+                    .setCommandIssue(toUs(frame.duration(GfxInfoFrameStatsParser.ISSUE_DRAW_COMMANDS_START, GfxInfoFrameStatsParser.SWAP_BUFFERS)))
+                    .setGpu(toUs(frame.duration(GfxInfoFrameStatsParser.ISSUE_DRAW_COMMANDS_START, GfxInfoFrameStatsParser.GPU_COMPLETED))));
+        }
+    };
+
+    private static int toUs(long ns) {
+        return (int) (ns / 1000);
+    }
+
+    @Override
+    public FrameStats collect(TargetApp targetApp, long timestamp, ProfileNtf.Builder data) throws Exception {
+        Log.v(TAG, "collect gfxinfo data: timestamp=" + timestamp);
+        List<String> lines = ReadSystemInfoUtils.readInfoFromDumpsys(SERVICE_NAME, new String[]{targetApp.getPackageName(), "framestats"});
+
+        mBuilder = FrameStats.newBuilder();
+        mJankFrames = 0;
+        mFirstFrameCompleted = 0;
+        mLastFrameCompleted = 0;
+        int frameCount = mParser.parse(lines, mListener);
+        if (frameCount > 0 && !mParser.isOverlapped()) {
+            Log.w(TAG, "No overlap with previous poll, we missed some frames!");
+        }
+
+        float fps = 0;
+        if (frameCount > 0) {
+            // from the last frame of the previous poll, or the first frame of this poll if the app was idle
+            boolean continuous = mPrevLastFrameCompleted > 0 && mFirstFrameCompleted - mPrevLastFrameCompleted <= MAX_FRAME_GAP;
+            long start = continuous ? mPrevLastFrameCompleted : mFirstFrameCompleted;
+            int frames = continuous ? frameCount : frameCount - 1;
+            if (mLastFrameCompleted > start) {
+                fps = frames / ((mLastFrameCompleted - start) / 1e9f);
+            }
+            mPrevLastFrameCompleted = mLastFrameCompleted;
+        }
+
+        FrameStats frameStats = mBuilder.setFps(fps).setJankFrames(mJankFrames).build();
+        mBuilder = null;
+        if (data != null) {
+            data.setFrameStats(frameStats);
+        }
+        return frameStats;
+    }
+
+    @Override
+    public void setInterestingFields(Map<ProfileReq.DataType, Boolean> dataTypes) {
+        // pass
+    }
+}
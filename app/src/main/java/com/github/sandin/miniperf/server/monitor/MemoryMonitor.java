@@ -1,16 +1,24 @@
 package com.github.sandin.miniperf.server.monitor;
 
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.github.sandin.miniperf.server.bean.TargetApp;
 import com.github.sandin.miniperf.server.proto.Memory;
+import com.github.sandin.miniperf.server.proto.MemoryCategory;
 import com.github.sandin.miniperf.server.proto.MemoryDetail;
+import com.github.sandin.miniperf.server.proto.MemoryTier;
+import com.github.sandin.miniperf.server.proto.MemoryTrend;
 import com.github.sandin.miniperf.server.proto.ProfileNtf;
 import com.github.sandin.miniperf.server.proto.ProfileReq;
 import com.github.sandin.miniperf.server.proto.VirtualMemory;
 import com.github.sandin.miniperf.server.util.ConvertUtils;
+import com.github.sandin.miniperf.server.util.MeminfoParser;
+import com.github.sandin.miniperf.server.util.MemoryTrendDetector;
+import com.github.sandin.miniperf.server.util.ProcFileReader;
 import com.github.sandin.miniperf.server.util.ReadSystemInfoUtils;
 
+import java.io.Closeable;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -19,15 +27,96 @@ import java.util.Map;
  * Memory Monitor
  * Memory mb
  * Memory kb
+ * <p>
+ * `dumpsys meminfo` takes hundreds of ms and walks the maps of the target, so it only runs every
+ * {@link #DEFAULT_DETAIL_INTERVAL_MS} for the {@link MemoryDetail}. Every tick reads /proc/<pid>/smaps_rollup(android 9+)
+ * for pss, swap and rss, the pss of dumpsys also has the graphics memory which is not mapped(GL mtrack...), the
+ * difference of both at the last dumpsys is added to it. smaps_rollup of another app can not be read by the shell uid
+ * (ptrace read check, non-rooted devices), then rss and swap of the world readable /proc/<pid>/status are read every
+ * tick and the pss of the last dumpsys is reported with its age, dumpsys still only runs every
+ * {@link #DEFAULT_DETAIL_INTERVAL_MS}.
+ * Every value is marked with its {@link MemoryTier}.
+ * <p>
+ * With {@link ProfileReq.DataType#MEMORY_TREND} the pss and native heap series are analyzed by
+ * {@link MemoryTrendDetector}, a {@link MemoryTrend} is only sent when a growth or a step is detected.
  *
  * @see Memory
  * <a href="https://cs.android.com/android/platform/superproject/+/master:frameworks/base/core/java/android/app/ActivityThread.java;l=2739?q=ActivityThread.jav&ss=android">ActivityThread</a>
  */
-public class MemoryMonitor implements IMonitor<Memory> {
+public class MemoryMonitor implements IMonitor<Memory>, Closeable {
     private static final String TAG = "MemoryMonitor";
 
+    /**
+     * default interval of `dumpsys meminfo`
+     */
+    public static final long DEFAULT_DETAIL_INTERVAL_MS = 5000;
+
+    /**
+     * default thresholds of {@link MemoryTrendDetector}: +50MB over 10 minutes, or a step of 100MB
+     */
+    public static final long DEFAULT_TREND_WINDOW_MS = 10 * 60 * 1000;
+    public static final int DEFAULT_TREND_GROWTH_MB = 50;
+    public static final int DEFAULT_TREND_STEP_MB = 100;
+
     private Map<ProfileReq.DataType, Boolean> mDataTypes = new HashMap<>();
 
+    private long mDetailIntervalMs;
+    private int mPid = -1;
+    private ProcFileReader mSmapsRollupReader;
+    private ProcFileReader mStatusReader;
+    /**
+     * rss, pss and swap of smaps_rollup(kb)
+     */
+    private final int[] mRollup = new int[3];
+    private final MeminfoParser mMeminfoParser = new MeminfoParser();
+
+    /**
+     * result of the last `dumpsys meminfo`
+     */
+    private MemoryDetail mDetail;
+    private long mDetailTime = 0;
+    /**
+     * pss of dumpsys - pss of smaps_rollup at the last dumpsys(kb)
+     */
+    private int mUnmappedPss = 0;
+    /**
+     * total pss of the last dumpsys(kb)
+     */
+    private int mDumpsysPss = 0;
+
+    private MemoryTrendDetector mPssTrend;
+    private MemoryTrendDetector mNativeHeapTrend;
+
+    public MemoryMonitor() {
+        this(DEFAULT_DETAIL_INTERVAL_MS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param detailIntervalMs interval of `dumpsys meminfo`(ms), 0 to run it every tick
+     */
+    public MemoryMonitor(long detailIntervalMs) {
+        mDetailIntervalMs = detailIntervalMs;
+        setTrendThresholds(DEFAULT_TREND_WINDOW_MS, DEFAULT_TREND_GROWTH_MB, DEFAULT_TREND_STEP_MB);
+    }
+
+    public void setDetailInterval(long detailIntervalMs) {
+        mDetailIntervalMs = detailIntervalMs;
+    }
+
+    /**
+     * Set the thresholds of the memory trend, the series are started over
+     *
+     * @param windowMs window of the growth(ms)
+     * @param growthMb min growth over the window(MB)
+     * @param stepMb   min step(MB)
+     */
+    public void setTrendThresholds(long windowMs, int growthMb, int stepMb) {
+        mPssTrend = new MemoryTrendDetector(windowMs, growthMb * 1024L, stepMb * 1024L);
+        mNativeHeapTrend = new MemoryTrendDetector(windowMs, growthMb * 1024L, stepMb * 1024L);
+    }
+
 
     /**
      * dump memoryInfo
@@ -41,67 +130,206 @@ public class MemoryMonitor implements IMonitor<Memory> {
         sb.append(", pss=").append(memory.getPss());
         sb.append(", swap=").append(memory.getSwap());
         sb.append(", virtualMemory=").append(memory.getVirtualMemory());
+        sb.append(", rss=").append(memory.getRss());
+        sb.append(", pssTier=").append(memory.getPssTier());
+        sb.append(", detailAge=").append(memory.getDetailAge());
         if (memory.getMemoryDetail() != null) {
             sb.append(", memoryDetail.gl=").append(memory.getMemoryDetail().getGl());
             sb.append(", memoryDetail.gfx=").append(memory.getMemoryDetail().getGfx());
             sb.append(", memoryDetail.unknown=").append(memory.getMemoryDetail().getUnknown());
             sb.append(", memoryDetail.nativePass=").append(memory.getMemoryDetail().getNativePss());
+            sb.append(", memoryDetail.javaHeap=").append(memory.getMemoryDetail().getJavaHeap());
+            sb.append(", memoryDetail.nativeHeap=").append(memory.getMemoryDetail().getNativeHeap());
+            sb.append(", memoryDetail.graphics=").append(memory.getMemoryDetail().getGraphics());
         }
         sb.append("]");
         return sb.toString();
     }
 
-    //kb -> mb 四舍五入
+    private void reset(int pid) {
+        close();
+        mPid = pid;
+        mSmapsRollupReader = new ProcFileReader("/proc/" + pid + "/smaps_rollup", 1024);
+        mStatusReader = new ProcFileReader("/proc/" + pid + "/status", 2048);
+        mDetail = null;
+        mDetailTime = 0;
+        mUnmappedPss = 0;
+        mDumpsysPss = 0;
+        mPssTrend.reset();
+        mNativeHeapTrend.reset();
+    }
 
+    /**
+     * Add a sample to a series
+     *
+     * @param value value(kb)
+     */
+    private void detectTrend(ProfileNtf.Builder data, MemoryTrendDetector detector, MemoryTrend.Series series, long time, int value) {
+        int trend = detector.add(time, value);
+        if (trend == MemoryTrendDetector.TREND_NONE) {
+            return;
+        }
+        MemoryTrend memoryTrend = MemoryTrend.newBuilder()
+                .setSeries(series)
+                .setKind(trend == MemoryTrendDetector.TREND_GROWTH ? MemoryTrend.Kind.GROWTH : MemoryTrend.Kind.STEP)
+                .setValue(value / 1024f)
+                .setSlope((float) (detector.getSlope() / 1024))
+                .setGrowth((float) (detector.getGrowth() / 1024))
+                .setR2((float) detector.getR2())
+                .setDuration((int) (detector.getDuration() / 1000))
+                .setStepSize((float) (detector.getStepSize() / 1024))
+                .build();
+        Log.w(TAG, "memory trend: " + memoryTrend);
+        if (data != null) {
+            data.addMemoryTrends(memoryTrend);
+        }
+    }
+
+    /**
+     * Run `dumpsys meminfo <pid> --local`
+     *
+     * @return total pss(kb)
+     */
+    private int collectDetail(int pid) {
+        List<String> meminfoResult = ReadSystemInfoUtils.readInfoFromDumpsys("meminfo", new String[]{String.valueOf(pid), "--local"});
+        MeminfoParser parser = mMeminfoParser;
+        parser.parse(meminfoResult);
+        MemoryDetail.Builder detailBuilder = MemoryDetail.newBuilder()
+                .setGfx(getPss(MeminfoParser.GFX_DEV))
+                .setGl(getPss(MeminfoParser.GL_MTRACK))
+                .setNativePss(getPss(MeminfoParser.NATIVE_HEAP))
+                .setUnknown(getPss(MeminfoParser.UNKNOWN))
+                .setJavaHeap((int) parser.getSummary(MeminfoParser.SUMMARY_JAVA_HEAP))
+                .setNativeHeap((int) parser.getSummary(MeminfoParser.SUMMARY_NATIVE_HEAP))
+                .setCode((int) parser.getSummary(MeminfoParser.SUMMARY_CODE))
+                .setStack((int) parser.getSummary(MeminfoParser.SUMMARY_STACK))
+                .setGraphics((int) parser.getSummary(MeminfoParser.SUMMARY_GRAPHICS))
+                .setPrivateOther((int) parser.getSummary(MeminfoParser.SUMMARY_PRIVATE_OTHER))
+                .setSystem((int) parser.getSummary(MeminfoParser.SUMMARY_SYSTEM))
+                .setTotalSwapPss((int) parser.getTotalSwapPss())
+                .setDalvikHeap(getPss(MeminfoParser.DALVIK_HEAP))
+                .setDalvikOther(getPss(MeminfoParser.DALVIK_OTHER))
+                .setEgl(getPss(MeminfoParser.EGL_MTRACK))
+                .setOtherMtrack(getPss(MeminfoParser.OTHER_MTRACK))
+                .setNativeHeapSize((int) parser.get(MeminfoParser.NATIVE_HEAP, MeminfoParser.HEAP_SIZE))
+                .setNativeHeapAlloc((int) parser.get(MeminfoParser.NATIVE_HEAP, MeminfoParser.HEAP_ALLOC))
+                .setDalvikHeapSize((int) parser.get(MeminfoParser.DALVIK_HEAP, MeminfoParser.HEAP_SIZE))
+                .setDalvikHeapAlloc((int) parser.get(MeminfoParser.DALVIK_HEAP, MeminfoParser.HEAP_ALLOC));
+        for (int category = 0; category < MeminfoParser.CATEGORY_COUNT; category++) {
+            if (category == MeminfoParser.TOTAL || !parser.hasCategory(category)) {
+                continue;
+            }
+            detailBuilder.addCategories(MemoryCategory.newBuilder()
+                    .setName(MeminfoParser.CATEGORY_NAMES[category])
+                    .setPss(getPss(category))
+                    .setPrivateDirty((int) parser.get(category, MeminfoParser.PRIVATE_DIRTY))
+                    .setPrivateClean((int) parser.get(category, MeminfoParser.PRIVATE_CLEAN))
+                    .setSwapPss((int) parser.get(category, MeminfoParser.SWAP_PSS_DIRTY))
+                    .setRss((int) parser.get(category, MeminfoParser.RSS_TOTAL)));
+        }
+        mDetail = detailBuilder.build();
+        mDetailTime = SystemClock.uptimeMillis();
+        // some devices(oppo) only have the TOTAL row, others also have the TOTAL of the summary
+        return parser.hasCategory(MeminfoParser.TOTAL) ? getPss(MeminfoParser.TOTAL) : (int) parser.getSummary(MeminfoParser.SUMMARY_TOTAL);
+    }
 
-    private int getLineDataByIndex(String line, int index) {
-        return Integer.parseInt(line.split("\\s+")[index]);
+    private int getPss(int category) {
+        return (int) mMeminfoParser.get(category, MeminfoParser.PSS_TOTAL);
+    }
+
+    /**
+     * Read Rss, Pss and Swap of /proc/<pid>/smaps_rollup(kb)
+     *
+     * @param values rss, pss and swap
+     * @return false if it can not be read
+     */
+    private boolean readSmapsRollup(int[] values) {
+        ProcFileReader reader = mSmapsRollupReader;
+        if (!reader.read()) {
+            return false;
+        }
+        // the fields are in this order, the first line is the range of the mappings
+        if (!reader.findLine("Rss:")) {
+            return false;
+        }
+        values[0] = (int) reader.nextLong(0);
+        if (!reader.findLine("Pss:")) {
+            return false;
+        }
+        values[1] = (int) reader.nextLong(0);
+        values[2] = reader.findLine("Swap:") ? (int) reader.nextLong(0) : 0;
+        return true;
     }
 
     public Memory collect(TargetApp targetApp, long timestamp, ProfileNtf.Builder data) throws Exception {
         Memory.Builder memoryBuilder = Memory.newBuilder();
-        MemoryDetail.Builder detailBuilder = MemoryDetail.newBuilder();
         int pid = targetApp.getPid();
-        List<String> meminfoResult = ReadSystemInfoUtils.readInfoFromDumpsys("meminfo", new String[]{String.valueOf(pid), "--local"});
-        int gl = 0, gfx = 0, unknow = 0, pss = 0, nativePss = 0;
-        for (String line : meminfoResult) {
-            //gfx
-            if (line.startsWith("Gfx dev"))
-                gfx = getLineDataByIndex(line, 2);
-            //gl
-            if (line.startsWith("GL mtrack"))
-                gl = getLineDataByIndex(line, 2);
-            //unknow
-            if (line.startsWith("Unknown"))
-                unknow = getLineDataByIndex(line, 1);
-            //pss
-            if (line.startsWith("TOTAL"))
-                pss = getLineDataByIndex(line, 1);
-            //native
-            if (line.startsWith("Native Heap"))
-                nativePss = getLineDataByIndex(line, 2);
+        if (pid != mPid) {
+            reset(pid);
+        }
+
+        int[] rollup = mRollup;
+        boolean hasRollup = readSmapsRollup(rollup);
+        long now = SystemClock.uptimeMillis();
+        boolean detailDue = mDetail == null || now - mDetailTime >= mDetailIntervalMs;
+        int pss;
+        if (detailDue) {
+            pss = collectDetail(pid);
+            mDumpsysPss = pss;
+            if (hasRollup) {
+                mUnmappedPss = Math.max(pss - rollup[1], 0);
+            }
+            memoryBuilder.setPssTier(MemoryTier.DUMPSYS_MEMINFO);
+        } else if (hasRollup) {
+            pss = rollup[1] + mUnmappedPss;
+            memoryBuilder.setPssTier(MemoryTier.SMAPS_ROLLUP);
+        } else {
+            pss = mDumpsysPss; // as old as the detail
+            memoryBuilder.setPssTier(MemoryTier.DUMPSYS_MEMINFO);
         }
         memoryBuilder.setPss(ConvertUtils.kb2Mb(pss));
-        detailBuilder.setUnknown(unknow).setGfx(gfx).setGl(gl).setNativePss(nativePss);
+        memoryBuilder.setMemoryDetail(mDetail).setDetailTier(MemoryTier.DUMPSYS_MEMINFO)
+                .setDetailAge(detailDue ? 0 : (int) (now - mDetailTime));
+        if (hasRollup) {
+            memoryBuilder.setRss(ConvertUtils.kb2Mb(rollup[0])).setRssTier(MemoryTier.SMAPS_ROLLUP);
+        }
+
         //vss & swap kb
-        List<String> vssAndSwapResult = ReadSystemInfoUtils.readInfoFromSystemFile("/proc/" + pid + "/status");
         int vss = 0;
         int swap = 0;
-        for (String line : vssAndSwapResult) {
+        ProcFileReader status = mStatusReader;
+        if (status.read()) {
             //vss
-            if (line.startsWith("VmSize:")) {
-                vss = getLineDataByIndex(line, 1);
+            if (status.findLine("VmSize:")) {
+                vss = (int) status.nextLong(0);
+            }
+            //rss
+            if (!hasRollup && status.findLine("VmRSS:")) {
+                memoryBuilder.setRss(ConvertUtils.kb2Mb((int) status.nextLong(0))).setRssTier(MemoryTier.PROC_STATUS);
             }
             //swap
-            if (line.startsWith("VmSwap:")) {
-                swap = getLineDataByIndex(line, 1);
+            if (!hasRollup && status.findLine("VmSwap:")) {
+                swap = (int) status.nextLong(0);
+                memoryBuilder.setSwapTier(MemoryTier.PROC_STATUS);
             }
         }
+        if (hasRollup) {
+            swap = rollup[2];
+            memoryBuilder.setSwapTier(MemoryTier.SMAPS_ROLLUP);
+        }
         memoryBuilder.setVirtualMemory(ConvertUtils.kb2Mb(vss)).setSwap(ConvertUtils.kb2Mb(swap));
-        memoryBuilder.setMemoryDetail(detailBuilder);
         Memory memory = memoryBuilder.build();
 
         Log.v(TAG, dumpMemory(memory));
+        if (isDataTypeEnabled(ProfileReq.DataType.MEMORY_TREND)) {
+            long time = SystemClock.elapsedRealtime();
+            if (detailDue || hasRollup) { // the pss of the last dumpsys is not a new sample
+                detectTrend(data, mPssTrend, MemoryTrend.Series.PSS, time, pss);
+            }
+            if (detailDue) { // native heap is only fresh after dumpsys
+                detectTrend(data, mNativeHeapTrend, MemoryTrend.Series.NATIVE_HEAP, time, mDetail.getNativePss());
+            }
+        }
         if (data != null) {
             data.setMemory(memory);
             data.setVirtualMemory(VirtualMemory.newBuilder().setVirtualMemory(ConvertUtils.kb2Mb(vss)).build());
@@ -109,6 +337,16 @@ public class MemoryMonitor implements IMonitor<Memory> {
         return memory;
     }
 
+    @Override
+    public void close() {
+        if (mSmapsRollupReader != null) {
+            mSmapsRollupReader.close();
+        }
+        if (mStatusReader != null) {
+            mStatusReader.close();
+        }
+    }
+
     private boolean isDataTypeEnabled(ProfileReq.DataType dataType) {
         return mDataTypes.containsKey(dataType) && mDataTypes.get(dataType);
     }
@@ -1,6 +1,7 @@
 package com.github.sandin.miniperf.server.monitor;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.genymobile.scrcpy.wrappers.NetworkStatusManager;
@@ -9,43 +10,72 @@ import com.github.sandin.miniperf.server.bean.TargetApp;
 import com.github.sandin.miniperf.server.bean.TrafficInfo;
 import com.github.sandin.miniperf.server.data.DataSource;
 import com.github.sandin.miniperf.server.proto.Network;
+import com.github.sandin.miniperf.server.proto.NetworkSource;
+import com.github.sandin.miniperf.server.proto.NetworkTraffic;
 import com.github.sandin.miniperf.server.proto.ProfileNtf;
 import com.github.sandin.miniperf.server.proto.ProfileReq;
 import com.github.sandin.miniperf.server.util.AndroidProcessUtils;
-import com.github.sandin.miniperf.server.util.ReadSystemInfoUtils;
+import com.github.sandin.miniperf.server.util.InterfaceTypeCounters;
+import com.github.sandin.miniperf.server.util.ProcNetDevReader;
+import com.github.sandin.miniperf.server.util.QtaguidStatsReader;
 
-import java.io.File;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Network Monitor
- * 两种收集信息方式
- * 1、getTrafficsFromNetworkStatsManager 通过NetworkStatsManager获取 仅支持Api>= 23
- * 2、getTrafficsFromSystemFile 通过解析 /proc/net/xt_qtaguid/stats 高版本安卓会移除
- * return -1为不支持
+ * 三种收集信息方式, 会话开始时(uid变化时)按顺序选择第一个可用的
+ * 1、getTrafficsFromSystemFile 通过解析 /proc/net/xt_qtaguid/stats 高版本安卓会移除
+ * 2、getTrafficsFromNetstats 通过INetworkStatsService.getUidStats获取, android 11起非system uid返回UNSUPPORTED
+ * 3、/proc/net/dev 设备所有应用的流量
  * return b/s
+ * <p>
+ * The uid is resolved once per session, the stats files are kept opened and parsed in place by {@link QtaguidStatsReader}
+ * and {@link ProcNetDevReader}, the netstats service and its method are cached.
+ * The counters are 64 bits and the rates are normalized by the elapsed time between two ticks, the breakdown by
+ * interface type and by protocol(xt_qtaguid only) is added if {@link ProfileReq.DataType#NETWORK_DETAIL} is enabled.
  */
-public class NetworkMonitor implements IMonitor<Network> {
+public class NetworkMonitor implements IMonitor<Network>, Closeable {
 
     private static final String TAG = "NetworkMonitor";
     private final String SERVICE_NAME = "netstats";
-    private long lastRxBytes = 0;
-    private long lastTxBytes = 0;
     private Context mContext;
-    private boolean supportReadSystemFile;
+    private final QtaguidStatsReader mStatsReader;
+    private final ProcNetDevReader mNetDevReader;
+    private NetworkStatusManager mNetworkStatusManager;
+    private NetworkSource mSource = NetworkSource.NETWORK_SOURCE_NONE;
+    private String mPackageName;
+    private int mUid = -1;
+    private Map<ProfileReq.DataType, Boolean> mDataTypes = new HashMap<>();
+
+    // InterfaceTypeCounters.RX_BYTES...
+    private final long[] mCounters = new long[InterfaceTypeCounters.COUNTER_COUNT];
+    private final long[] mLastCounters = new long[InterfaceTypeCounters.COUNTER_COUNT];
+    private final long[][] mLastProtocols = new long[QtaguidStatsReader.PROTOCOL_NAMES.length][InterfaceTypeCounters.COUNTER_COUNT];
+    private final List<long[]> mLastIfaces = new ArrayList<>();
+    private final List<long[]> mLastDeviceIfaces = new ArrayList<>();
+    private long mLastTime = -1;
+    private long mLastDeviceTime = -1;
 
 
     public NetworkMonitor(Context context) {
+        this(context, DataSource.NETWORK_SYSTEM_FILE_PATHS, DataSource.NETWORK_DEV_FILE_PATH);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param context     context
+     * @param qtaguidPath path of /proc/net/xt_qtaguid/stats
+     * @param netDevPath  path of /proc/net/dev
+     */
+    public NetworkMonitor(Context context, String qtaguidPath, String netDevPath) {
         mContext = context;
-        File systemFile = new File(DataSource.NETWORK_SYSTEM_FILE_PATHS);
-        supportReadSystemFile = systemFile.exists();
-        if (supportReadSystemFile) {
-            if (ReadSystemInfoUtils.readInfoFromSystemFile(DataSource.NETWORK_SYSTEM_FILE_PATHS).size() <= 0)
-                supportReadSystemFile = !supportReadSystemFile;
-        }
-        System.out.println("support read system file : " + supportReadSystemFile);
-        Log.i(TAG, "support read system file : " + supportReadSystemFile);
+        mStatsReader = new QtaguidStatsReader(qtaguidPath);
+        mNetDevReader = new ProcNetDevReader(netDevPath);
     }
 
     /**
@@ -64,12 +94,28 @@ public class NetworkMonitor implements IMonitor<Network> {
     }
 
     public TrafficInfo getTrafficsFromNetstats(int uid) {
-        final int TYPE_RX_BYTES = 0;
-        final int TYPE_TX_BYTES = 2;
-        NetworkStatusManager networkStatusManager = new ServiceManager().getNetworkStatusManager();
-        long rx = networkStatusManager.getUidStats(uid, TYPE_RX_BYTES);
-        long tx = networkStatusManager.getUidStats(uid, TYPE_TX_BYTES);
-        return new TrafficInfo(tx, rx);
+        if (!readNetstats(uid, mCounters)) {
+            return null;
+        }
+        return new TrafficInfo(mCounters[InterfaceTypeCounters.TX_BYTES], mCounters[InterfaceTypeCounters.RX_BYTES]);
+    }
+
+    /**
+     * TYPE_RX_BYTES, TYPE_RX_PACKETS, TYPE_TX_BYTES and TYPE_TX_PACKETS of getUidStats are in the same order as
+     * the counters of {@link InterfaceTypeCounters}
+     *
+     * @return false if failed or not allowed
+     */
+    private boolean readNetstats(int uid, long[] counters) {
+        try {
+            if (mNetworkStatusManager == null) {
+                mNetworkStatusManager = new ServiceManager().getNetworkStatusManager();
+            }
+        } catch (Throwable e) { // no netstats service
+            Log.w(TAG, "can not get netstats service", e);
+            return false;
+        }
+        return mNetworkStatusManager.getUidStats(uid, counters) && counters[InterfaceTypeCounters.RX_BYTES] != NetworkStatusManager.UNSUPPORTED;
     }
 
 
@@ -97,48 +143,181 @@ public class NetworkMonitor implements IMonitor<Network> {
     20 tx_other_packets ： 发送的其他类型包数
     */
     public TrafficInfo getTrafficsFromSystemFile(int uid) {
-        List<String> content = ReadSystemInfoUtils.readInfoFromSystemFile(DataSource.NETWORK_SYSTEM_FILE_PATHS);
-        long rxBytes = 0, txBytes = 0;
-        if (content.size() > 1) {
-            for (String line : content) {
-                if (line.equals(content.get(0)))
-                    continue;
-                String[] parts = line.split("\\s+");
-                long lineUid = Long.parseLong(parts[3]);
-                if ((lineUid == uid) && (!parts[1].equals("lo"))) {
-                    rxBytes += Long.parseLong(parts[5]);
-                    txBytes += Long.parseLong(parts[7]);
+        if (!mStatsReader.read(uid)) {
+            return null;
+        }
+        return new TrafficInfo(mStatsReader.getTxBytes(), mStatsReader.getRxBytes());
+    }
+
+    /**
+     * Pick the first source which works for the uid, the per app sources come first
+     */
+    private NetworkSource selectSource(int uid) {
+        if (mStatsReader.read(uid)) {
+            return NetworkSource.XT_QTAGUID;
+        }
+        if (readNetstats(uid, mCounters)) {
+            return NetworkSource.NETSTATS;
+        }
+        if (mNetDevReader.read()) {
+            return NetworkSource.PROC_NET_DEV;
+        }
+        return NetworkSource.NETWORK_SOURCE_NONE;
+    }
+
+    private int getUid(TargetApp targetApp) {
+        String packageName = targetApp.getPackageName();
+        if (mUid <= 0 || !packageName.equals(mPackageName)) {
+            mPackageName = packageName;
+            mUid = targetApp.getUid() > 0 ? targetApp.getUid() : AndroidProcessUtils.getUid(mContext, packageName);
+            mSource = selectSource(mUid);
+            mLastTime = -1;
+            Log.i(TAG, "uid of " + packageName + ": " + mUid + ", source: " + mSource);
+        }
+        return mUid;
+    }
+
+    /**
+     * @return bytes per second, 0 if the counter is reset or there is no last value
+     */
+    private static long rate(long value, long lastValue, long intervalMs) {
+        return intervalMs > 0 && value >= lastValue ? (value - lastValue) * 1000 / intervalMs : 0;
+    }
+
+    private static float packetRate(long value, long lastValue, long intervalMs) {
+        return intervalMs > 0 && value >= lastValue ? (value - lastValue) * 1000f / intervalMs : 0;
+    }
+
+    /**
+     * Rates of the counters(RX_BYTES...) since the last tick, the last values are updated
+     */
+    private static NetworkTraffic.Builder buildTraffic(String name, long rxBytes, long rxPackets, long txBytes, long txPackets,
+                                                      long[] last, long intervalMs) {
+        NetworkTraffic.Builder builder = NetworkTraffic.newBuilder()
+                .setName(name)
+                .setDownload(rate(rxBytes, last[InterfaceTypeCounters.RX_BYTES], intervalMs))
+                .setDownloadPackets(packetRate(rxPackets, last[InterfaceTypeCounters.RX_PACKETS], intervalMs))
+                .setUpload(rate(txBytes, last[InterfaceTypeCounters.TX_BYTES], intervalMs))
+                .setUploadPackets(packetRate(txPackets, last[InterfaceTypeCounters.TX_PACKETS], intervalMs));
+        last[InterfaceTypeCounters.RX_BYTES] = rxBytes;
+        last[InterfaceTypeCounters.RX_PACKETS] = rxPackets;
+        last[InterfaceTypeCounters.TX_BYTES] = txBytes;
+        last[InterfaceTypeCounters.TX_PACKETS] = txPackets;
+        return builder;
+    }
+
+    /**
+     * Rates of each interface type
+     *
+     * @param lastIfaces last values of each type, new types are appended with no rate until the next tick
+     */
+    private static List<NetworkTraffic.Builder> buildIfaceTraffics(InterfaceTypeCounters ifaces, List<long[]> lastIfaces, long intervalMs) {
+        List<NetworkTraffic.Builder> traffics = new ArrayList<>(ifaces.size());
+        for (int i = 0; i < ifaces.size(); i++) {
+            if (i == lastIfaces.size()) {
+                long[] last = new long[InterfaceTypeCounters.COUNTER_COUNT];
+                for (int c = 0; c < last.length; c++) {
+                    last[c] = ifaces.get(i, c);
                 }
+                lastIfaces.add(last);
+            }
+            traffics.add(buildTraffic(ifaces.getType(i),
+                    ifaces.get(i, InterfaceTypeCounters.RX_BYTES), ifaces.get(i, InterfaceTypeCounters.RX_PACKETS),
+                    ifaces.get(i, InterfaceTypeCounters.TX_BYTES), ifaces.get(i, InterfaceTypeCounters.TX_PACKETS),
+                    lastIfaces.get(i), intervalMs));
+        }
+        return traffics;
+    }
+
+    private void addBreakdown(Network.Builder networkBuilder, long intervalMs) {
+        QtaguidStatsReader r = mStatsReader;
+        List<NetworkTraffic.Builder> ifaces = buildIfaceTraffics(r.getIfaces(), mLastIfaces, intervalMs);
+        for (int p = 0; p < QtaguidStatsReader.PROTOCOL_NAMES.length; p++) {
+            NetworkTraffic.Builder traffic = buildTraffic(QtaguidStatsReader.PROTOCOL_NAMES[p],
+                    r.getProtocol(p, QtaguidStatsReader.RX_BYTES), r.getProtocol(p, QtaguidStatsReader.RX_PACKETS),
+                    r.getProtocol(p, QtaguidStatsReader.TX_BYTES), r.getProtocol(p, QtaguidStatsReader.TX_PACKETS),
+                    mLastProtocols[p], intervalMs);
+            if (intervalMs > 0) {
+                networkBuilder.addProtocols(traffic);
+            }
+        }
+        if (intervalMs > 0) {
+            for (NetworkTraffic.Builder traffic : ifaces) {
+                networkBuilder.addInterfaces(traffic);
+            }
+        }
+    }
+
+    /**
+     * Interface totals of the device from /proc/net/dev
+     */
+    private void addDeviceBreakdown(Network.Builder networkBuilder, long now) {
+        if (!mNetDevReader.read()) {
+            return;
+        }
+        long interval = mLastDeviceTime > 0 ? now - mLastDeviceTime : 0;
+        List<NetworkTraffic.Builder> ifaces = buildIfaceTraffics(mNetDevReader.getIfaces(), mLastDeviceIfaces, interval);
+        if (interval > 0) {
+            for (NetworkTraffic.Builder traffic : ifaces) {
+                networkBuilder.addDeviceInterfaces(traffic);
             }
         }
-        System.out.println("collect traffic data from system file result : rx:" + rxBytes + " tx: " + txBytes);
-        return new TrafficInfo(txBytes, rxBytes);
+        mLastDeviceTime = now;
     }
 
+    /**
+     * Read the counters of the selected source into {@link #mCounters}
+     */
+    private boolean readCounters(int uid) {
+        switch (mSource) {
+            case XT_QTAGUID:
+                if (!mStatsReader.read(uid)) {
+                    return false;
+                }
+                for (int c = 0; c < mCounters.length; c++) {
+                    mCounters[c] = mStatsReader.getTotal(c);
+                }
+                return true;
+            case NETSTATS:
+                return readNetstats(uid, mCounters);
+            case PROC_NET_DEV: // traffic of the device, never reported as the app's
+            default:
+                return false;
+        }
+    }
 
     @Override
     public Network collect(TargetApp targetApp, long timestamp, ProfileNtf.Builder data) throws Exception {
-        int uid = AndroidProcessUtils.getUid(mContext, targetApp.getPackageName());
-        System.out.println("collect application uid : " + uid);
-        TrafficInfo traffics;
-        if (supportReadSystemFile)
-            traffics = getTrafficsFromSystemFile(uid);
-        else
-            traffics = getTrafficsFromNetstats(uid);
-        Network.Builder networkBuilder = Network.newBuilder();
-        if (traffics != null) {
-            System.out.println("now traffics info : " + traffics.getDownload() + " " + traffics.getUpload());
-            Log.i(TAG, "last traffic info : " + lastRxBytes + " " + lastTxBytes);
-            Log.i(TAG, "now traffics info : " + traffics.getDownload() + " " + traffics.getUpload());
-            //first collect
-            if (lastTxBytes == 0 && lastRxBytes == 0) {
-                networkBuilder.setUpload(0).setDownload(0);
-            } else {
-                networkBuilder.setDownload((int) (traffics.getDownload() - lastRxBytes)).setUpload((int) (traffics.getUpload() - lastTxBytes));
+        int uid = getUid(targetApp);
+        long now = SystemClock.elapsedRealtime();
+
+        Network.Builder networkBuilder = Network.newBuilder().setSource(mSource);
+        boolean success = readCounters(uid);
+        long interval = 0;
+        if (success) {
+            interval = mLastTime > 0 ? now - mLastTime : 0;
+            NetworkTraffic.Builder total = buildTraffic("",
+                    mCounters[InterfaceTypeCounters.RX_BYTES], mCounters[InterfaceTypeCounters.RX_PACKETS],
+                    mCounters[InterfaceTypeCounters.TX_BYTES], mCounters[InterfaceTypeCounters.TX_PACKETS],
+                    mLastCounters, interval);
+            networkBuilder.setTotalDownload(mCounters[InterfaceTypeCounters.RX_BYTES])
+                    .setTotalUpload(mCounters[InterfaceTypeCounters.TX_BYTES]);
+            if (interval > 0) { // the first tick has no rate
+                networkBuilder.setDownload(total.getDownload())
+                        .setUpload(total.getUpload())
+                        .setDownloadPackets(total.getDownloadPackets())
+                        .setUploadPackets(total.getUploadPackets());
             }
-            lastTxBytes = traffics.getUpload();
-            lastRxBytes = traffics.getDownload();
-            System.out.println("now last bytes is : " + lastRxBytes + " " + lastTxBytes);
+            mLastTime = now;
+            Log.v(TAG, "traffics info : " + networkBuilder.getTotalDownload() + " " + networkBuilder.getTotalUpload()
+                    + ", rate: " + networkBuilder.getDownload() + " " + networkBuilder.getUpload());
+        }
+        if (success && mSource == NetworkSource.XT_QTAGUID && isDataTypeEnabled(ProfileReq.DataType.NETWORK_DETAIL)) {
+            addBreakdown(networkBuilder, interval);
+        }
+        // without a per app source the device traffic is all there is
+        if (isDataTypeEnabled(ProfileReq.DataType.NETWORK_DETAIL) || mSource == NetworkSource.PROC_NET_DEV) {
+            addDeviceBreakdown(networkBuilder, now);
         }
         Network network = networkBuilder.build();
         if (data != null) {
@@ -147,9 +326,20 @@ public class NetworkMonitor implements IMonitor<Network> {
         return network;
     }
 
+    private boolean isDataTypeEnabled(ProfileReq.DataType dataType) {
+        return mDataTypes.containsKey(dataType) && mDataTypes.get(dataType);
+    }
+
     @Override
     public void setInterestingFields(Map<ProfileReq.DataType, Boolean> dataTypes) {
-        // pass
+        mDataTypes.clear();
+        mDataTypes.putAll(dataTypes);
+    }
+
+    @Override
+    public void close() {
+        mStatsReader.close();
+        mNetDevReader.close();
     }
 
 }
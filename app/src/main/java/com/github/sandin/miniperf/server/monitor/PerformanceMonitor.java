@@ -13,6 +13,8 @@ import com.github.sandin.miniperf.server.proto.ProfileNtf;
 import com.github.sandin.miniperf.server.proto.ProfileReq;
 import com.github.sandin.miniperf.server.util.AndroidProcessUtils;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -32,13 +34,21 @@ public class PerformanceMonitor {
     private static final String GPU_FREQ_MONITOR = "gpu_freq";
     private static final String NETWORK_MONITOR = "network";
     private static final String BATTERY_MONITOR = "battery";
+    private static final String BATTERY_TEMPERATURE_MONITOR = "battery_temperature";
+    private static final String PROCESS_GROUP_MONITOR = "process_group";
+    private static final String SCHED_LATENCY_MONITOR = "sched_latency";
+    private static final String CPU_IDLE_MONITOR = "cpu_idle";
+    private static final String GFXINFO_MONITOR = "gfxinfo";
+    private static final String RSS_MONITOR = "rss";
+    private static final String SYSTEM_MEMORY_MONITOR = "system_memory";
     /**
      * Interval time in Ms
      */
     private final int mIntervalMs;
     private final int mScreenshotIntervalMs;
     /**
-     * Current monitors
+     * Current monitors, guarded by itself: the loop thread holds it for a whole tick, so a monitor is never closed
+     * while collecting
      */
     private final Map<String, IMonitor<?>> mMonitors = new HashMap<>();
     /**
@@ -61,7 +71,7 @@ public class PerformanceMonitor {
      */
     @Nullable
     private TargetApp mTargetApp;
-    private boolean mIsRunning = false;
+    private volatile boolean mIsRunning = false;
     //TODO use context
     private Context mContext;
 
@@ -124,13 +134,27 @@ public class PerformanceMonitor {
     }
 
     /**
-     * Unregister a monitor
+     * Unregister a monitor, the caller holds {@link #mMonitors} so the loop thread is not collecting from it
      *
      * @param name monitor name
      */
     private void unregisterMonitor(String name) {
         Log.i(TAG, "unregisterMonitor name=" + name);
-        mMonitors.remove(name);
+        closeMonitor(mMonitors.remove(name));
+    }
+
+    /**
+     * Release the resources(opened files...) held by a monitor
+     *
+     * @param monitor monitor
+     */
+    private static void closeMonitor(IMonitor<?> monitor) {
+        if (monitor instanceof Closeable) {
+            try {
+                ((Closeable) monitor).close();
+            } catch (IOException ignore) {
+            }
+        }
     }
 
     /**
@@ -173,7 +197,9 @@ public class PerformanceMonitor {
             Log.i(TAG, "now data type is : " + dataType.name());
             mDataTypes.put(dataType, true); // turn on the switch
         }
-        setupMonitorsForDataTypes();
+        synchronized (mMonitors) {
+            setupMonitorsForDataTypes();
+        }
 
         mLoopThread = new Thread(new MonitorWorker());
         mLoopThread.start();
@@ -194,7 +220,9 @@ public class PerformanceMonitor {
             }
             Log.i(TAG, "toggle dataType " + dataType + " -> " + mDataTypes.get(dataType));
         }
-        setupMonitorsForDataTypes();
+        synchronized (mMonitors) {
+            setupMonitorsForDataTypes();
+        }
     }
 
     public boolean isDataTypeEnabled(ProfileReq.DataType dataType) {
@@ -211,7 +239,7 @@ public class PerformanceMonitor {
 
     private void setupMonitorsForDataTypes() {
         // cpu
-        if (isDataTypeEnabled(ProfileReq.DataType.CPU_USAGE) || isDataTypeEnabled(ProfileReq.DataType.CORE_USAGE) || isDataTypeEnabled(ProfileReq.DataType.CORE_FREQUENCY)) {
+        if (isDataTypeEnabled(ProfileReq.DataType.CPU_USAGE) || isDataTypeEnabled(ProfileReq.DataType.CORE_USAGE) || isDataTypeEnabled(ProfileReq.DataType.CORE_FREQUENCY) || isDataTypeEnabled(ProfileReq.DataType.CPU_FREQ_RESIDENCY) || isDataTypeEnabled(ProfileReq.DataType.CPU_CLUSTER) || isDataTypeEnabled(ProfileReq.DataType.PAGE_FAULT)) {
             final CpuMonitor cpuMonitor;
             if (!isMonitorRegistered(CPU_MONITOR)) {
                 cpuMonitor = new CpuMonitor(mTargetApp.getPid());
@@ -219,8 +247,8 @@ public class PerformanceMonitor {
             } else { // has already registered and just update fields
                 cpuMonitor = getMonitor(CPU_MONITOR);
             }
-            cpuMonitor.setInterestingFields(getSubDataTypes(ProfileReq.DataType.CPU_USAGE, ProfileReq.DataType.CORE_USAGE, ProfileReq.DataType.CORE_FREQUENCY));
-        } else if (!isDataTypeEnabled(ProfileReq.DataType.CPU_USAGE) && !isDataTypeEnabled(ProfileReq.DataType.CORE_USAGE) && !isDataTypeEnabled(ProfileReq.DataType.CORE_FREQUENCY)) {
+            cpuMonitor.setInterestingFields(getSubDataTypes(ProfileReq.DataType.CPU_USAGE, ProfileReq.DataType.CORE_USAGE, ProfileReq.DataType.CORE_FREQUENCY, ProfileReq.DataType.CPU_FREQ_RESIDENCY, ProfileReq.DataType.CPU_CLUSTER, ProfileReq.DataType.PAGE_FAULT));
+        } else if (!isDataTypeEnabled(ProfileReq.DataType.CPU_USAGE) && !isDataTypeEnabled(ProfileReq.DataType.CORE_USAGE) && !isDataTypeEnabled(ProfileReq.DataType.CORE_FREQUENCY) && !isDataTypeEnabled(ProfileReq.DataType.CPU_FREQ_RESIDENCY) && !isDataTypeEnabled(ProfileReq.DataType.CPU_CLUSTER) && !isDataTypeEnabled(ProfileReq.DataType.PAGE_FAULT)) {
             if (isMonitorRegistered(CPU_MONITOR)) {
                 unregisterMonitor(CPU_MONITOR);
             }
@@ -238,7 +266,7 @@ public class PerformanceMonitor {
         }
 
         // fps
-        if (isDataTypeEnabled(ProfileReq.DataType.FPS) || isDataTypeEnabled(ProfileReq.DataType.FRAME_TIME)) {
+        if (isDataTypeEnabled(ProfileReq.DataType.FPS) || isDataTypeEnabled(ProfileReq.DataType.FRAME_TIME) || isDataTypeEnabled(ProfileReq.DataType.LAYER_FPS)) {
             final FpsMonitor fpsMonitor;
             if (!isMonitorRegistered(FPS_MONITOR)) {
                 fpsMonitor = new FpsMonitor();
@@ -246,15 +274,15 @@ public class PerformanceMonitor {
             } else { // has already registered and just update fields
                 fpsMonitor = getMonitor(FPS_MONITOR);
             }
-            fpsMonitor.setInterestingFields(getSubDataTypes(ProfileReq.DataType.FPS, ProfileReq.DataType.FRAME_TIME));
-        } else if (!isDataTypeEnabled(ProfileReq.DataType.FPS) && !isDataTypeEnabled(ProfileReq.DataType.FRAME_TIME)) {
+            fpsMonitor.setInterestingFields(getSubDataTypes(ProfileReq.DataType.FPS, ProfileReq.DataType.FRAME_TIME, ProfileReq.DataType.LAYER_FPS));
+        } else if (!isDataTypeEnabled(ProfileReq.DataType.FPS) && !isDataTypeEnabled(ProfileReq.DataType.FRAME_TIME) && !isDataTypeEnabled(ProfileReq.DataType.LAYER_FPS)) {
             if (isMonitorRegistered(FPS_MONITOR)) {
                 unregisterMonitor(FPS_MONITOR);
             }
         }
 
         // memory
-        if (isDataTypeEnabled(ProfileReq.DataType.MEMORY) || isDataTypeEnabled(ProfileReq.DataType.ANDROID_MEMORY_DETAIL)) {
+        if (isDataTypeEnabled(ProfileReq.DataType.MEMORY) || isDataTypeEnabled(ProfileReq.DataType.ANDROID_MEMORY_DETAIL) || isDataTypeEnabled(ProfileReq.DataType.MEMORY_TREND)) {
             final MemoryMonitor memoryMonitor;
             if (!isMonitorRegistered(MEMORY_MONITOR)) {
                 memoryMonitor = new MemoryMonitor();
@@ -262,8 +290,8 @@ public class PerformanceMonitor {
             } else { // has already registered and just update fields
                 memoryMonitor = getMonitor(MEMORY_MONITOR);
             }
-            memoryMonitor.setInterestingFields(getSubDataTypes(ProfileReq.DataType.MEMORY, ProfileReq.DataType.ANDROID_MEMORY_DETAIL));
-        } else if (!isDataTypeEnabled(ProfileReq.DataType.MEMORY) && !isDataTypeEnabled(ProfileReq.DataType.ANDROID_MEMORY_DETAIL)) {
+            memoryMonitor.setInterestingFields(getSubDataTypes(ProfileReq.DataType.MEMORY, ProfileReq.DataType.ANDROID_MEMORY_DETAIL, ProfileReq.DataType.MEMORY_TREND));
+        } else if (!isDataTypeEnabled(ProfileReq.DataType.MEMORY) && !isDataTypeEnabled(ProfileReq.DataType.ANDROID_MEMORY_DETAIL) && !isDataTypeEnabled(ProfileReq.DataType.MEMORY_TREND)) {
             if (isMonitorRegistered(MEMORY_MONITOR)) {
                 unregisterMonitor(MEMORY_MONITOR);
             }
@@ -302,10 +330,15 @@ public class PerformanceMonitor {
         }
 
         // network
-        if (isDataTypeEnabled(ProfileReq.DataType.NETWORK_USAGE)) {
+        if (isDataTypeEnabled(ProfileReq.DataType.NETWORK_USAGE) || isDataTypeEnabled(ProfileReq.DataType.NETWORK_DETAIL)) {
+            final NetworkMonitor networkMonitor;
             if (!isMonitorRegistered(NETWORK_MONITOR)) {
-                registerMonitor(NETWORK_MONITOR, new NetworkMonitor(mContext));
-            } // else has already registered and do nothing
+                networkMonitor = new NetworkMonitor(mContext);
+                registerMonitor(NETWORK_MONITOR, networkMonitor);
+            } else { // has already registered and just update fields
+                networkMonitor = getMonitor(NETWORK_MONITOR);
+            }
+            networkMonitor.setInterestingFields(getSubDataTypes(ProfileReq.DataType.NETWORK_USAGE, ProfileReq.DataType.NETWORK_DETAIL));
         } else {
             if (isMonitorRegistered(NETWORK_MONITOR)) {
                 unregisterMonitor(NETWORK_MONITOR);
@@ -315,32 +348,115 @@ public class PerformanceMonitor {
         // battery
         if (isDataTypeEnabled(ProfileReq.DataType.BATTERY)) {
             if (!isMonitorRegistered(BATTERY_MONITOR)) {
-                registerMonitor(BATTERY_MONITOR, new BatteryMonitor(mContext, null));
+                registerMonitor(BATTERY_MONITOR, new BatteryMonitor(mContext, null, BatteryMonitor.DEFAULT_SAMPLE_INTERVAL_MS));
             } // else has already registered and do nothing
         } else {
             if (isMonitorRegistered(BATTERY_MONITOR)) {
                 unregisterMonitor(BATTERY_MONITOR);
             }
         }
+
+        // battery temperature
+        if (isDataTypeEnabled(ProfileReq.DataType.BATTERY_TEMPERATURE)) {
+            if (!isMonitorRegistered(BATTERY_TEMPERATURE_MONITOR)) {
+                registerMonitor(BATTERY_TEMPERATURE_MONITOR, new BatteryTemperatureMonitor());
+            } // else has already registered and do nothing
+        } else {
+            if (isMonitorRegistered(BATTERY_TEMPERATURE_MONITOR)) {
+                unregisterMonitor(BATTERY_TEMPERATURE_MONITOR);
+            }
+        }
+
+        // process group
+        if (isDataTypeEnabled(ProfileReq.DataType.PROCESS_GROUP)) {
+            if (!isMonitorRegistered(PROCESS_GROUP_MONITOR)) {
+                registerMonitor(PROCESS_GROUP_MONITOR, new ProcessGroupMonitor(mContext));
+            } // else has already registered and do nothing
+        } else {
+            if (isMonitorRegistered(PROCESS_GROUP_MONITOR)) {
+                unregisterMonitor(PROCESS_GROUP_MONITOR);
+            }
+        }
+
+        // sched latency
+        if (isDataTypeEnabled(ProfileReq.DataType.SCHED_LATENCY)) {
+            if (!isMonitorRegistered(SCHED_LATENCY_MONITOR)) {
+                registerMonitor(SCHED_LATENCY_MONITOR, new SchedLatencyMonitor());
+            } // else has already registered and do nothing
+        } else {
+            if (isMonitorRegistered(SCHED_LATENCY_MONITOR)) {
+                unregisterMonitor(SCHED_LATENCY_MONITOR);
+            }
+        }
+
+        // cpu idle
+        if (isDataTypeEnabled(ProfileReq.DataType.CPU_IDLE)) {
+            if (!isMonitorRegistered(CPU_IDLE_MONITOR)) {
+                registerMonitor(CPU_IDLE_MONITOR, new CpuIdleMonitor());
+            } // else has already registered and do nothing
+        } else {
+            if (isMonitorRegistered(CPU_IDLE_MONITOR)) {
+                unregisterMonitor(CPU_IDLE_MONITOR);
+            }
+        }
+
+        // gfxinfo
+        if (isDataTypeEnabled(ProfileReq.DataType.FRAME_STATS)) {
+            if (!isMonitorRegistered(GFXINFO_MONITOR)) {
+                registerMonitor(GFXINFO_MONITOR, new GfxInfoMonitor());
+            } // else has already registered and do nothing
+        } else {
+            if (isMonitorRegistered(GFXINFO_MONITOR)) {
+                unregisterMonitor(GFXINFO_MONITOR);
+            }
+        }
+
+        // rss
+        if (isDataTypeEnabled(ProfileReq.DataType.MEMORY_RSS)) {
+            if (!isMonitorRegistered(RSS_MONITOR)) {
+                registerMonitor(RSS_MONITOR, new RssMonitor());
+            } // else has already registered and do nothing
+        } else {
+            if (isMonitorRegistered(RSS_MONITOR)) {
+                unregisterMonitor(RSS_MONITOR);
+            }
+        }
+
+        // system memory
+        if (isDataTypeEnabled(ProfileReq.DataType.SYSTEM_MEMORY)) {
+            if (!isMonitorRegistered(SYSTEM_MEMORY_MONITOR)) {
+                registerMonitor(SYSTEM_MEMORY_MONITOR, new SystemMemoryMonitor());
+            } // else has already registered and do nothing
+        } else {
+            if (isMonitorRegistered(SYSTEM_MEMORY_MONITOR)) {
+                unregisterMonitor(SYSTEM_MEMORY_MONITOR);
+            }
+        }
     }
 
     public void stop() {
         if (mIsRunning) {
             mIsRunning = false;
 
-            // TODO: unregisterMonitors
-            mMonitors.clear();
-            //清除状态
-            for (ProfileReq.DataType dataType : mDataTypes.keySet()) {
-                mDataTypes.put(dataType, false);
-            }
-
-            if (mLoopThread != null) {
+            // wait for the tick in progress, stop() is also called by the loop thread itself when the app is closed
+            Thread loopThread = mLoopThread;
+            if (loopThread != null && loopThread != Thread.currentThread()) {
                 try {
-                    mLoopThread.join();
+                    loopThread.join();
                 } catch (InterruptedException ignore) {
                 }
-                mLoopThread = null;
+            }
+            mLoopThread = null;
+
+            synchronized (mMonitors) {
+                for (IMonitor<?> monitor : mMonitors.values()) {
+                    closeMonitor(monitor);
+                }
+                mMonitors.clear();
+            }
+            //清除状态
+            for (ProfileReq.DataType dataType : mDataTypes.keySet()) {
+                mDataTypes.put(dataType, false);
             }
         }
     }
@@ -348,14 +464,16 @@ public class PerformanceMonitor {
     private ProfileNtf collectData(long timestamp) {
         ProfileNtf.Builder data = ProfileNtf.newBuilder();
         data.setTimestamp(timestamp);
-        for (Map.Entry<String, IMonitor<?>> entry : mMonitors.entrySet()) {
-            IMonitor<?> monitor = entry.getValue();
-            try {
-                monitor.collect(mTargetApp, timestamp, data);
-            } catch (Throwable e) {
-                e.printStackTrace();
+        synchronized (mMonitors) {
+            for (Map.Entry<String, IMonitor<?>> entry : mMonitors.entrySet()) {
+                IMonitor<?> monitor = entry.getValue();
+                try {
+                    monitor.collect(mTargetApp, timestamp, data);
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                }
+                Log.v(TAG, "collect data: " + data.build().toString());
             }
-            Log.v(TAG, "collect data: " + data.build().toString());
         }
         return data.build();
     }
@@ -0,0 +1,319 @@
+package com.github.sandin.miniperf.server.monitor;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.github.sandin.miniperf.server.bean.TargetApp;
+import com.github.sandin.miniperf.server.proto.ProcessGroup;
+import com.github.sandin.miniperf.server.proto.ProcessUsage;
+import com.github.sandin.miniperf.server.proto.ProfileNtf;
+import com.github.sandin.miniperf.server.proto.ProfileReq;
+import com.github.sandin.miniperf.server.util.AndroidProcessUtils;
+import com.github.sandin.miniperf.server.util.ProcFileReader;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Process Group Monitor
+ * <p>
+ * Track all processes of a multi-process app(main process, "<packageName>:push", "<packageName>:remote"...),
+ * a process belongs to the app if its uid is the app's uid or its name is prefixed by the package name.
+ * <p>
+ * The scan of /proc is incremental: only the pids which were not in the previous listing are inspected,
+ * tracked processes keep their /proc/<pid>/stat and /proc/<pid>/statm opened.
+ */
+public class ProcessGroupMonitor implements IMonitor<ProcessGroup> {
+    private static final String TAG = "ProcessGroupMonitor";
+
+    /**
+     * zygote forked processes have this name before they are specialized
+     */
+    private static final String PRE_INITIALIZED_PROCESS_NAME = "<pre-initialized>";
+    /**
+     * a process forked by zygote keeps these names until it is specialized
+     */
+    private static final String ZYGOTE_PROCESS_NAME = "zygote";
+    private static final String ZYGOTE64_PROCESS_NAME = "zygote64";
+    /**
+     * kthreadd, the parent of all the kernel threads
+     */
+    private static final int KTHREADD_PID = 2;
+
+    private final Context mContext;
+    private final File mProcDir = new File("/proc");
+    private final ProcFileReader mProcStatReader = new ProcFileReader("/proc/stat", 4096);
+
+    private int mUid = -1;
+    private long mLastTotalTicks = 0;
+
+    /**
+     * sorted pids of the last /proc listing, without pids which need to be inspected again
+     */
+    private int[] mLastPids = new int[0];
+    private int mLastPidCount = 0;
+    private int[] mPids = new int[1024];
+
+    private final List<TrackedProcess> mProcesses = new ArrayList<>();
+    /**
+     * pids of zygote and zygote64
+     */
+    private final Set<Integer> mZygotePids = new HashSet<>();
+
+    public ProcessGroupMonitor(Context context) {
+        mContext = context;
+    }
+
+    static class TrackedProcess {
+        int pid;
+        String name;
+        ProcFileReader stat;
+        ProcFileReader statm;
+        long lastTicks = -1;
+        float cpuUsage;
+        int rssKb;
+
+        TrackedProcess(int pid, String name) {
+            this.pid = pid;
+            this.name = name;
+            this.stat = new ProcFileReader("/proc/" + pid + "/stat");
+            this.statm = new ProcFileReader("/proc/" + pid + "/statm", 128);
+        }
+
+        void close() {
+            stat.close();
+            statm.close();
+        }
+    }
+
+    /**
+     * Get the current tracked processes
+     */
+    public List<TrackedProcess> getProcesses() {
+        return mProcesses;
+    }
+
+    private static int parsePid(String name) {
+        int pid = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            pid = pid * 10 + (c - '0');
+        }
+        return pid;
+    }
+
+    private boolean isTracked(int pid) {
+        for (TrackedProcess process : mProcesses) {
+            if (process.pid == pid) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Inspect a new pid
+     *
+     * @return 1 belongs to the app, 0 does not belong to the app, -1 not specialized yet, inspect it again later
+     */
+    private int inspect(int pid, String packageName, String[] outName) {
+        ProcFileReader status = new ProcFileReader("/proc/" + pid + "/status", 1024);
+        int ppid = -1;
+        int uid = -1;
+        if (status.read() && status.findLine("PPid:")) {
+            ppid = (int) status.nextLong(-1);
+            if (status.findLine("Uid:")) {
+                uid = (int) status.nextLong(-1);
+            }
+        }
+        status.close();
+        outName[0] = "";
+        if (pid == KTHREADD_PID || ppid == KTHREADD_PID) {
+            return 0; // kernel thread
+        }
+        ProcFileReader cmdline = new ProcFileReader("/proc/" + pid + "/cmdline", 256);
+        String name = cmdline.read() ? cmdline.nextString() : "";
+        cmdline.close();
+        outName[0] = name;
+
+        if (name.equals(packageName) || name.startsWith(packageName + ":")) {
+            return 1;
+        }
+        if (mUid > 0 && uid == mUid) {
+            return 1;
+        }
+        if (name.equals(PRE_INITIALIZED_PROCESS_NAME)) {
+            return -1;
+        }
+        boolean zygoteChild = mZygotePids.contains(ppid);
+        if (name.equals(ZYGOTE_PROCESS_NAME) || name.equals(ZYGOTE64_PROCESS_NAME)) {
+            if (!zygoteChild) {
+                mZygotePids.add(pid); // zygote itself, inspected again at every scan too, only a few pids
+            }
+            return -1;
+        }
+        if (zygoteChild && uid == 0) {
+            return -1; // forked by zygote, uid not set yet
+        }
+        return 0; // including zombies and other processes without a cmdline
+    }
+
+    /**
+     * Scan /proc, inspect new pids and drop the dead processes
+     */
+    private void scan(String packageName) {
+        String[] entries = mProcDir.list();
+        if (entries == null) {
+            return;
+        }
+        if (mPids.length < entries.length) {
+            mPids = new int[entries.length * 2];
+        }
+        int count = 0;
+        for (String entry : entries) {
+            int pid = parsePid(entry);
+            if (pid > 0) {
+                mPids[count++] = pid;
+            }
+        }
+        Arrays.sort(mPids, 0, count);
+
+        // dead processes
+        Iterator<TrackedProcess> iterator = mProcesses.iterator();
+        while (iterator.hasNext()) {
+            TrackedProcess process = iterator.next();
+            if (Arrays.binarySearch(mPids, 0, count, process.pid) < 0) {
+                Log.i(TAG, "process died: pid=" + process.pid + ", name=" + process.name);
+                process.close();
+                iterator.remove();
+            }
+        }
+        Iterator<Integer> zygotes = mZygotePids.iterator();
+        while (zygotes.hasNext()) {
+            if (Arrays.binarySearch(mPids, 0, count, zygotes.next()) < 0) {
+                zygotes.remove();
+            }
+        }
+
+        // new processes
+        String[] name = new String[1];
+        int seen = 0;
+        for (int i = 0; i < count; i++) {
+            int pid = mPids[i];
+            if (Arrays.binarySearch(mLastPids, 0, mLastPidCount, pid) < 0 && !isTracked(pid)) {
+                int result = inspect(pid, packageName, name);
+                if (result == 1) {
+                    Log.i(TAG, "process found: pid=" + pid + ", name=" + name[0]);
+                    mProcesses.add(new TrackedProcess(pid, name[0]));
+                } else if (result == -1) {
+                    continue; // not in the seen list, inspect it again next time
+                }
+            }
+            mPids[seen++] = pid;
+        }
+
+        int[] t = mLastPids;
+        mLastPids = mPids;
+        mLastPidCount = seen;
+        mPids = t;
+    }
+
+    /**
+     * Read total cpu ticks from the first line of /proc/stat
+     */
+    private long readTotalTicks() {
+        if (!mProcStatReader.read() || !mProcStatReader.matchPrefix("cpu ")) {
+            return -1;
+        }
+        long total = 0;
+        for (int i = 0; i < 7; i++) { // user nice system idle iowait irq softirq
+            total += mProcStatReader.nextLong(0);
+        }
+        return total;
+    }
+
+    /**
+     * Read utime + stime of a process
+     */
+    private static long readProcessTicks(ProcFileReader stat) {
+        if (!stat.read() || !stat.seekAfterLast(')')) {
+            return -1;
+        }
+        // state ppid pgrp session tty_nr tpgid flags minflt cminflt majflt cmajflt utime stime
+        if (!stat.skipFields(11)) {
+            return -1;
+        }
+        long utime = stat.nextLong(-1);
+        long stime = stat.nextLong(-1);
+        if (utime < 0 || stime < 0) {
+            return -1;
+        }
+        return utime + stime;
+    }
+
+    @Override
+    public ProcessGroup collect(TargetApp targetApp, long timestamp, ProfileNtf.Builder data) throws Exception {
+        Log.v(TAG, "collect process group data: timestamp=" + timestamp);
+        String packageName = targetApp.getPackageName();
+        if (mUid <= 0) {
+            mUid = targetApp.getUid() > 0 ? targetApp.getUid() : AndroidProcessUtils.getUid(mContext, packageName);
+        }
+        scan(packageName);
+
+        long totalTicks = readTotalTicks();
+        long deltaTotal = mLastTotalTicks > 0 ? totalTicks - mLastTotalTicks : 0;
+        mLastTotalTicks = totalTicks;
+
+        int pageSizeKb = AndroidProcessUtils.getPageSizeKb();
+        ProcessGroup.Builder groupBuilder = ProcessGroup.newBuilder();
+        float totalCpu = 0;
+        int totalRss = 0;
+        Iterator<TrackedProcess> iterator = mProcesses.iterator();
+        while (iterator.hasNext()) {
+            TrackedProcess process = iterator.next();
+            long ticks = readProcessTicks(process.stat);
+            if (ticks < 0) { // died between scan and read
+                process.close();
+                iterator.remove();
+                continue;
+            }
+            if (process.lastTicks >= 0 && deltaTotal > 0) {
+                process.cpuUsage = (ticks - process.lastTicks) * 100f / deltaTotal;
+            } else {
+                process.cpuUsage = 0;
+            }
+            process.lastTicks = ticks;
+            if (process.statm.read()) {
+                process.statm.nextLong(0); // size
+                process.rssKb = (int) (process.statm.nextLong(0) * pageSizeKb);
+            }
+            totalCpu += process.cpuUsage;
+            totalRss += process.rssKb;
+            groupBuilder.addProcesses(ProcessUsage.newBuilder()
+                    .setPid(process.pid)
+                    .setName(process.name)
+                    .setCpuUsage(process.cpuUsage)
+                    .setRss(process.rssKb));
+        }
+        groupBuilder.setCpuUsage(totalCpu).setRss(totalRss);
+        ProcessGroup processGroup = groupBuilder.build();
+        if (data != null) {
+            data.setProcessGroup(processGroup);
+        }
+        return processGroup;
+    }
+
+    @Override
+    public void setInterestingFields(Map<ProfileReq.DataType, Boolean> dataTypes) {
+        // pass
+    }
+}
@@ -0,0 +1,225 @@
+package com.github.sandin.miniperf.server.monitor;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.github.sandin.miniperf.server.proto.Memory;
+import com.github.sandin.miniperf.server.proto.MemoryTier;
+import com.github.sandin.miniperf.server.proto.ProcessMemory;
+import com.github.sandin.miniperf.server.util.ConvertUtils;
+import com.github.sandin.miniperf.server.util.MeminfoParser;
+import com.github.sandin.miniperf.server.util.ProcFileReader;
+import com.github.sandin.miniperf.server.util.ReadSystemInfoUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Memory of several processes in one pass, for {@link com.github.sandin.miniperf.server.proto.GetMemoryUsageReq#getPidsList()}
+ * <p>
+ * Pss, rss and swap of /proc/<pid>/smaps_rollup and vss of /proc/<pid>/status for each process. smaps_rollup of
+ * another app can not be read by the shell uid(ptrace read check), so the pss of these processes falls back to
+ * `dumpsys meminfo`: one `dumpsys meminfo <pid> --local` each if there are at most {@link #MAX_PER_PROCESS_DUMPSYS},
+ * otherwise one system wide `dumpsys meminfo`(the "Total PSS by process" section has all processes, but the system
+ * collects the pss of every process for it). The pss of dumpsys is cached for {@link #DUMPSYS_TTL_MS}. Unlike {@link MemoryMonitor} the pss of smaps_rollup does not have the
+ * graphics memory which is not mapped(GL mtrack...), there is no {@link com.github.sandin.miniperf.server.proto.MemoryDetail}.
+ * <p>
+ * The procfs results are cached for {@link #DEFAULT_TTL_MS}, queries are serialized so concurrent queries share the work.
+ */
+public class ProcessMemoryCollector {
+    private static final String TAG = "ProcessMemoryCollector";
+
+    public static final long DEFAULT_TTL_MS = 500;
+    /**
+     * time to live of the pss of dumpsys, it walks the memory of the processes
+     */
+    public static final long DUMPSYS_TTL_MS = MemoryMonitor.DEFAULT_DETAIL_INTERVAL_MS;
+    /**
+     * max processes which run their own `dumpsys meminfo <pid>`
+     */
+    private static final int MAX_PER_PROCESS_DUMPSYS = 3;
+
+    private static class Entry {
+        final ProcessMemory memory; // null if the process is not found
+        final long time;
+
+        Entry(ProcessMemory memory, long time) {
+            this.memory = memory;
+            this.time = time;
+        }
+    }
+
+    private final long mTtlMs;
+    private final Map<Integer, Entry> mCache = new HashMap<>();
+    private final Map<Integer, Long> mDumpsysPss = new HashMap<>(); // kb
+    private final Map<Integer, Long> mDumpsysTime = new HashMap<>();
+    private final Map<Integer, Long> mTotalPss = new HashMap<>();
+    private final MeminfoParser mMeminfoParser = new MeminfoParser();
+
+    public ProcessMemoryCollector() {
+        this(DEFAULT_TTL_MS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param ttlMs time to live of the results(ms)
+     */
+    public ProcessMemoryCollector(long ttlMs) {
+        mTtlMs = ttlMs;
+    }
+
+    /**
+     * Collect the memory of the processes
+     *
+     * @param pids pids
+     * @return memory of the processes which exist, in the order of pids
+     */
+    public synchronized List<ProcessMemory> collect(List<Integer> pids) {
+        long now = SystemClock.uptimeMillis();
+        evict(now);
+
+        // fast procfs sources
+        List<Integer> needDumpsys = null;
+        Map<Integer, Memory.Builder> builders = new HashMap<>();
+        for (Integer pid : pids) {
+            if (mCache.containsKey(pid) || builders.containsKey(pid)) {
+                continue;
+            }
+            Memory.Builder builder = Memory.newBuilder();
+            if (!readProcfs(pid, builder)) {
+                mCache.put(pid, new Entry(null, now)); // not found
+                continue;
+            }
+            builders.put(pid, builder);
+            if (builder.getPssTier() == MemoryTier.MEMORY_TIER_NONE) {
+                if (needDumpsys == null) {
+                    needDumpsys = new ArrayList<>();
+                }
+                needDumpsys.add(pid);
+            }
+        }
+
+        if (needDumpsys != null) {
+            dumpsysPss(needDumpsys, now);
+            for (Integer pid : needDumpsys) {
+                Long pss = mDumpsysPss.get(pid);
+                if (pss != null) {
+                    builders.get(pid).setPss(ConvertUtils.kb2Mb(pss.intValue())).setPssTier(MemoryTier.DUMPSYS_MEMINFO);
+                }
+            }
+        }
+
+        for (Map.Entry<Integer, Memory.Builder> entry : builders.entrySet()) {
+            ProcessMemory memory = ProcessMemory.newBuilder().setPid(entry.getKey()).setMemory(entry.getValue()).build();
+            mCache.put(entry.getKey(), new Entry(memory, now));
+        }
+
+        List<ProcessMemory> result = new ArrayList<>(pids.size());
+        Set<Integer> added = new HashSet<>();
+        for (Integer pid : pids) {
+            Entry entry = mCache.get(pid);
+            if (entry != null && entry.memory != null && added.add(pid)) {
+                result.add(entry.memory);
+            }
+        }
+        return result;
+    }
+
+    private void evict(long now) {
+        Iterator<Entry> iterator = mCache.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().time >= mTtlMs) {
+                iterator.remove();
+            }
+        }
+        Iterator<Map.Entry<Integer, Long>> times = mDumpsysTime.entrySet().iterator();
+        while (times.hasNext()) {
+            Map.Entry<Integer, Long> entry = times.next();
+            if (now - entry.getValue() >= DUMPSYS_TTL_MS) {
+                mDumpsysPss.remove(entry.getKey());
+                times.remove();
+            }
+        }
+    }
+
+    /**
+     * Update {@link #mDumpsysPss} of the processes which have no cached value
+     */
+    private void dumpsysPss(List<Integer> pids, long now) {
+        List<Integer> stale = new ArrayList<>();
+        for (Integer pid : pids) {
+            if (!mDumpsysTime.containsKey(pid)) {
+                stale.add(pid);
+            }
+        }
+        if (stale.isEmpty()) {
+            return;
+        }
+        if (stale.size() <= MAX_PER_PROCESS_DUMPSYS) {
+            for (Integer pid : stale) {
+                mMeminfoParser.parse(ReadSystemInfoUtils.readInfoFromDumpsys("meminfo", new String[]{String.valueOf(pid), "--local"}));
+                long pss = mMeminfoParser.hasCategory(MeminfoParser.TOTAL)
+                        ? mMeminfoParser.get(MeminfoParser.TOTAL, MeminfoParser.PSS_TOTAL)
+                        : mMeminfoParser.getSummary(MeminfoParser.SUMMARY_TOTAL);
+                if (pss > 0) {
+                    mDumpsysPss.put(pid, pss);
+                }
+                mDumpsysTime.put(pid, now);
+            }
+            Log.v(TAG, "dumpsys meminfo <pid> for " + stale.size() + " processes");
+        } else {
+            mTotalPss.clear();
+            int count = MeminfoParser.parseTotalPssByProcess(ReadSystemInfoUtils.readInfoFromDumpsys("meminfo", new String[0]), mTotalPss);
+            Log.v(TAG, "dumpsys meminfo for " + stale.size() + " processes, total " + count);
+            for (Integer pid : stale) {
+                Long pss = mTotalPss.get(pid);
+                if (pss != null) {
+                    mDumpsysPss.put(pid, pss);
+                }
+                mDumpsysTime.put(pid, now);
+            }
+        }
+    }
+
+    /**
+     * Read smaps_rollup and status of a process
+     *
+     * @return false if the process is not found
+     */
+    private boolean readProcfs(int pid, Memory.Builder builder) {
+        ProcFileReader status = new ProcFileReader("/proc/" + pid + "/status", 2048);
+        ProcFileReader rollup = new ProcFileReader("/proc/" + pid + "/smaps_rollup", 1024);
+        try {
+            if (!status.read()) {
+                return false;
+            }
+            long vss = status.findLine("VmSize:") ? status.nextLong(0) : 0;
+            long rss = status.findLine("VmRSS:") ? status.nextLong(0) : 0;
+            long swap = status.findLine("VmSwap:") ? status.nextLong(0) : 0;
+            builder.setVirtualMemory(ConvertUtils.kb2Mb((int) vss))
+                    .setRss(ConvertUtils.kb2Mb((int) rss)).setRssTier(MemoryTier.PROC_STATUS)
+                    .setSwap(ConvertUtils.kb2Mb((int) swap)).setSwapTier(MemoryTier.PROC_STATUS);
+
+            if (rollup.read() && rollup.findLine("Rss:")) {
+                rss = rollup.nextLong(0);
+                if (rollup.findLine("Pss:")) {
+                    builder.setPss(ConvertUtils.kb2Mb((int) rollup.nextLong(0))).setPssTier(MemoryTier.SMAPS_ROLLUP)
+                            .setRss(ConvertUtils.kb2Mb((int) rss)).setRssTier(MemoryTier.SMAPS_ROLLUP);
+                    if (rollup.findLine("Swap:")) {
+                        builder.setSwap(ConvertUtils.kb2Mb((int) rollup.nextLong(0))).setSwapTier(MemoryTier.SMAPS_ROLLUP);
+                    }
+                }
+            }
+            return true;
+        } finally {
+            status.close();
+            rollup.close();
+        }
+    }
+}
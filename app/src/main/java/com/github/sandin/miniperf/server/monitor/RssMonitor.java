@@ -0,0 +1,156 @@
+package com.github.sandin.miniperf.server.monitor;
+
+import android.util.Log;
+
+import com.github.sandin.miniperf.server.bean.TargetApp;
+import com.github.sandin.miniperf.server.proto.ProfileNtf;
+import com.github.sandin.miniperf.server.proto.ProfileReq;
+import com.github.sandin.miniperf.server.proto.RssSample;
+import com.github.sandin.miniperf.server.util.AndroidProcessUtils;
+import com.github.sandin.miniperf.server.util.ProcFileReader;
+
+import java.io.Closeable;
+import java.util.Map;
+
+/**
+ * RSS Monitor
+ * <p>
+ * Sample resident and shared pages of /proc/<pid>/statm every {@link #DEFAULT_SAMPLE_INTERVAL_MS} in a thread and
+ * report the max, min and last values of each tick, so the short allocation spikes between the samples of
+ * {@link MemoryMonitor} show up. The file is kept opened and parsed in place, no dumpsys or binder calls.
+ */
+public class RssMonitor implements IMonitor<RssSample>, Closeable {
+    private static final String TAG = "RssMonitor";
+
+    public static final long DEFAULT_SAMPLE_INTERVAL_MS = 100;
+
+    private final long mSampleIntervalMs;
+    private final int mPageSizeKb;
+    private int mPid = -1;
+    private ProcFileReader mStatm;
+    private Thread mSampleThread;
+    private volatile boolean mSampling = false;
+
+    // kb, of the current tick
+    private int mRss, mRssMax, mRssMin;
+    private int mShared, mSharedMax, mSharedMin;
+    private int mSampleCount = 0;
+
+    public RssMonitor() {
+        this(DEFAULT_SAMPLE_INTERVAL_MS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param sampleIntervalMs interval of sampling(ms)
+     */
+    public RssMonitor(long sampleIntervalMs) {
+        mSampleIntervalMs = sampleIntervalMs;
+        mPageSizeKb = AndroidProcessUtils.getPageSizeKb();
+    }
+
+    private synchronized void reset(int pid) {
+        if (mStatm != null) {
+            mStatm.close();
+        }
+        mPid = pid;
+        mStatm = new ProcFileReader("/proc/" + pid + "/statm", 128);
+        mRss = mRssMax = mRssMin = 0;
+        mShared = mSharedMax = mSharedMin = 0;
+        mSampleCount = 0;
+    }
+
+    /**
+     * Sample statm once
+     */
+    private synchronized void sample() {
+        if (mStatm == null || !mStatm.read()) {
+            return;
+        }
+        mStatm.nextLong(0); // size
+        int rss = (int) (mStatm.nextLong(0) * mPageSizeKb);
+        int shared = (int) (mStatm.nextLong(0) * mPageSizeKb);
+        if (mSampleCount == 0) {
+            mRssMax = mRssMin = rss;
+            mSharedMax = mSharedMin = shared;
+        } else {
+            mRssMax = Math.max(mRssMax, rss);
+            mRssMin = Math.min(mRssMin, rss);
+            mSharedMax = Math.max(mSharedMax, shared);
+            mSharedMin = Math.min(mSharedMin, shared);
+        }
+        mRss = rss;
+        mShared = shared;
+        mSampleCount++;
+    }
+
+    private void startSampling() {
+        mSampling = true;
+        mSampleThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (mSampling) {
+                    try {
+                        Thread.sleep(mSampleIntervalMs);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    sample();
+                }
+            }
+        }, "RssSampler");
+        mSampleThread.setDaemon(true);
+        mSampleThread.start();
+    }
+
+    @Override
+    public RssSample collect(TargetApp targetApp, long timestamp, ProfileNtf.Builder data) throws Exception {
+        Log.v(TAG, "collect rss data: timestamp=" + timestamp);
+        int pid = targetApp.getPid();
+        if (pid != mPid) {
+            reset(pid);
+        }
+        if (mSampleThread == null) {
+            startSampling();
+        }
+        RssSample rssSample;
+        synchronized (this) {
+            if (mSampleCount == 0) {
+                sample();
+            }
+            rssSample = RssSample.newBuilder()
+                    .setRss(mRss)
+                    .setRssMax(mRssMax)
+                    .setRssMin(mRssMin)
+                    .setShared(mShared)
+                    .setSharedMax(mSharedMax)
+                    .setSharedMin(mSharedMin)
+                    .setSampleCount(mSampleCount)
+                    .build();
+            mSampleCount = 0;
+        }
+        if (data != null) {
+            data.setRssSample(rssSample);
+        }
+        return rssSample;
+    }
+
+    @Override
+    public void setInterestingFields(Map<ProfileReq.DataType, Boolean> dataTypes) {
+        // pass
+    }
+
+    @Override
+    public synchronized void close() {
+        mSampling = false;
+        if (mSampleThread != null) {
+            mSampleThread.interrupt();
+            mSampleThread = null;
+        }
+        if (mStatm != null) {
+            mStatm.close();
+            mStatm = null;
+        }
+    }
+}
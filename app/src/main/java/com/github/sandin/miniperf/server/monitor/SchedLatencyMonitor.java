@@ -0,0 +1,202 @@
+package com.github.sandin.miniperf.server.monitor;
+
+import android.util.Log;
+
+import com.github.sandin.miniperf.server.bean.TargetApp;
+import com.github.sandin.miniperf.server.proto.ProfileNtf;
+import com.github.sandin.miniperf.server.proto.ProfileReq;
+import com.github.sandin.miniperf.server.proto.SchedLatency;
+import com.github.sandin.miniperf.server.proto.ThreadSchedLatency;
+import com.github.sandin.miniperf.server.util.ProcFileReader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scheduler Latency Monitor
+ * <p>
+ * Read /proc/<pid>/task/<tid>/schedstat of the main thread and the render thread:
+ * "<time on cpu(ns)> <time waiting on a runqueue(ns)> <timeslices run on this cpu>"
+ * <p>
+ * A thread which waits a lot on the runqueue is ready to work but does not get a cpu(cpu contention),
+ * a thread which runs a lot is busy with its own work.
+ */
+public class SchedLatencyMonitor implements IMonitor<SchedLatency>, Closeable {
+    private static final String TAG = "SchedLatencyMonitor";
+
+    private static final String MAIN_THREAD_NAME = "main";
+
+    /**
+     * render thread names, by priority: hwui, unity, unreal
+     */
+    private static final String[] RENDER_THREAD_NAMES = {"RenderThread", "UnityGfxDeviceW", "RHIThread"};
+
+    /**
+     * upper bounds of the histogram buckets(us), the last bucket is unbounded
+     */
+    private static final int[] HISTOGRAM_BOUNDS = {100, 250, 500, 1000, 2000, 4000, 8000};
+
+    /**
+     * look for the render thread again every N ticks if it is not found yet
+     */
+    private static final int FIND_RENDER_THREAD_INTERVAL = 5;
+
+    private int mPid = -1;
+    private final List<ThreadSched> mThreads = new ArrayList<>();
+    private boolean mRenderThreadFound = false;
+    private int mTicksToFindRenderThread = 0;
+
+    static class ThreadSched {
+        int tid;
+        String name;
+        ProcFileReader reader;
+        long lastRunTime = -1; // ns
+        long lastWaitTime; // ns
+        long lastTimeslices;
+        int[] histogram = new int[HISTOGRAM_BOUNDS.length + 1];
+
+        ThreadSched(int pid, int tid, String name) {
+            this.tid = tid;
+            this.name = name;
+            this.reader = new ProcFileReader("/proc/" + pid + "/task/" + tid + "/schedstat", 64);
+        }
+
+        void close() {
+            reader.close();
+        }
+    }
+
+    private static int histogramBucket(float avgWaitUs) {
+        for (int i = 0; i < HISTOGRAM_BOUNDS.length; i++) {
+            if (avgWaitUs < HISTOGRAM_BOUNDS[i]) {
+                return i;
+            }
+        }
+        return HISTOGRAM_BOUNDS.length;
+    }
+
+    /**
+     * Find the render thread by the names of /proc/<pid>/task/<tid>/comm
+     */
+    private ThreadSched findRenderThread(int pid) {
+        String[] tasks = new File("/proc/" + pid + "/task").list();
+        if (tasks == null) {
+            return null;
+        }
+        int bestTid = -1;
+        int bestPriority = RENDER_THREAD_NAMES.length;
+        for (String task : tasks) {
+            ProcFileReader comm = new ProcFileReader("/proc/" + pid + "/task/" + task + "/comm", 32);
+            String name = comm.read() ? comm.nextString() : "";
+            comm.close();
+            for (int i = 0; i < bestPriority; i++) {
+                if (RENDER_THREAD_NAMES[i].equals(name)) {
+                    try {
+                        bestTid = Integer.parseInt(task);
+                        bestPriority = i;
+                    } catch (NumberFormatException ignore) {
+                    }
+                    break;
+                }
+            }
+        }
+        if (bestTid < 0) {
+            return null;
+        }
+        return new ThreadSched(pid, bestTid, RENDER_THREAD_NAMES[bestPriority]);
+    }
+
+    private void reset(int pid) {
+        close();
+        mPid = pid;
+        mThreads.add(new ThreadSched(pid, pid, MAIN_THREAD_NAME));
+        mRenderThreadFound = false;
+        mTicksToFindRenderThread = 0;
+    }
+
+    @Override
+    public SchedLatency collect(TargetApp targetApp, long timestamp, ProfileNtf.Builder data) throws Exception {
+        Log.v(TAG, "collect sched latency data: timestamp=" + timestamp);
+        int pid = targetApp.getPid();
+        if (pid != mPid) {
+            reset(pid);
+        }
+        if (!mRenderThreadFound && mTicksToFindRenderThread-- <= 0) {
+            ThreadSched renderThread = findRenderThread(pid);
+            if (renderThread != null) {
+                Log.i(TAG, "render thread found: tid=" + renderThread.tid + ", name=" + renderThread.name);
+                mThreads.add(renderThread);
+                mRenderThreadFound = true;
+            }
+            mTicksToFindRenderThread = FIND_RENDER_THREAD_INTERVAL;
+        }
+
+        SchedLatency.Builder builder = SchedLatency.newBuilder();
+        Iterator<ThreadSched> iterator = mThreads.iterator();
+        while (iterator.hasNext()) {
+            ThreadSched thread = iterator.next();
+            if (!thread.reader.read()) {
+                if (thread.tid != pid) { // render thread exited, look for it again
+                    thread.close();
+                    iterator.remove();
+                    mRenderThreadFound = false;
+                }
+                continue;
+            }
+            long runTime = thread.reader.nextLong(-1);
+            long waitTime = thread.reader.nextLong(-1);
+            long timeslices = thread.reader.nextLong(-1);
+            if (runTime < 0 || waitTime < 0 || timeslices < 0) {
+                continue;
+            }
+            if (thread.lastRunTime >= 0) {
+                long deltaRun = runTime - thread.lastRunTime;
+                long deltaWait = waitTime - thread.lastWaitTime;
+                long deltaTimeslices = timeslices - thread.lastTimeslices;
+                float avgWait = deltaTimeslices > 0 ? deltaWait / 1000f / deltaTimeslices : 0;
+                float waitRatio = deltaRun + deltaWait > 0 ? deltaWait * 100f / (deltaRun + deltaWait) : 0;
+                if (deltaTimeslices > 0) {
+                    thread.histogram[histogramBucket(avgWait)]++;
+                }
+                ThreadSchedLatency.Builder threadBuilder = ThreadSchedLatency.newBuilder()
+                        .setTid(thread.tid)
+                        .setName(thread.name)
+                        .setRunTime(deltaRun / 1000)
+                        .setWaitTime(deltaWait / 1000)
+                        .setTimeslices((int) deltaTimeslices)
+                        .setAvgWait(avgWait)
+                        .setWaitRatio(waitRatio);
+                for (int count : thread.histogram) {
+                    threadBuilder.addHistogram(count);
+                }
+                builder.addThreads(threadBuilder);
+            }
+            thread.lastRunTime = runTime;
+            thread.lastWaitTime = waitTime;
+            thread.lastTimeslices = timeslices;
+        }
+
+        SchedLatency schedLatency = builder.build();
+        if (data != null) {
+            data.setSchedLatency(schedLatency);
+        }
+        return schedLatency;
+    }
+
+    @Override
+    public void setInterestingFields(Map<ProfileReq.DataType, Boolean> dataTypes) {
+        // pass
+    }
+
+    @Override
+    public void close() {
+        for (ThreadSched thread : mThreads) {
+            thread.close();
+        }
+        mThreads.clear();
+    }
+}
@@ -0,0 +1,148 @@
+package com.github.sandin.miniperf.server.monitor;
+
+import android.app.ActivityManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.genymobile.scrcpy.wrappers.ServiceManager;
+import com.github.sandin.miniperf.server.bean.TargetApp;
+import com.github.sandin.miniperf.server.proto.ProfileNtf;
+import com.github.sandin.miniperf.server.proto.ProfileReq;
+import com.github.sandin.miniperf.server.proto.SystemMemory;
+import com.github.sandin.miniperf.server.util.ProcFileReader;
+
+import java.io.Closeable;
+import java.util.Map;
+
+/**
+ * System Memory Monitor
+ * <p>
+ * Memory pressure of the whole system, to explain why the target app was killed or throttled:
+ * <ul>
+ * <li>/proc/meminfo: MemAvailable, cached, swap</li>
+ * <li>/sys/block/zram0/mm_stat: original, compressed and used size of zram</li>
+ * <li>/proc/pressure/memory: PSI, the stall time of the interval from the cumulative "total=" counters(us)</li>
+ * <li>low memory killer threshold of ActivityManager, queried once since it does not change at runtime</li>
+ * </ul>
+ * The files are kept opened and parsed in place into primitive fields every tick.
+ */
+public class SystemMemoryMonitor implements IMonitor<SystemMemory>, Closeable {
+    private static final String TAG = "SystemMemoryMonitor";
+
+    private final ProcFileReader mMeminfo;
+    private final ProcFileReader mZram;
+    private final ProcFileReader mPressure;
+
+    private long mLmkThreshold = -1; // kb, 0 if unknown
+
+    private long mLastTime = -1; // us
+    private long mLastSomeTotal = -1; // us
+    private long mLastFullTotal = -1; // us
+
+    public SystemMemoryMonitor() {
+        this("/proc/meminfo", "/sys/block/zram0/mm_stat", "/proc/pressure/memory");
+    }
+
+    /**
+     * Constructor
+     *
+     * @param meminfoPath  path of /proc/meminfo
+     * @param zramPath     path of /sys/block/zram0/mm_stat
+     * @param pressurePath path of /proc/pressure/memory
+     */
+    public SystemMemoryMonitor(String meminfoPath, String zramPath, String pressurePath) {
+        mMeminfo = new ProcFileReader(meminfoPath, 4096);
+        mZram = new ProcFileReader(zramPath, 256);
+        mPressure = new ProcFileReader(pressurePath, 256);
+    }
+
+    private long readMeminfo(String key) {
+        mMeminfo.rewind();
+        return mMeminfo.findLine(key) ? mMeminfo.nextLong(0) : -1;
+    }
+
+    private long getLmkThreshold() {
+        if (mLmkThreshold < 0) {
+            mLmkThreshold = 0;
+            try {
+                ActivityManager.MemoryInfo memoryInfo = new ServiceManager().getActivityManager().getMemoryInfo();
+                if (memoryInfo != null) {
+                    mLmkThreshold = memoryInfo.threshold / 1024;
+                }
+            } catch (Throwable e) {
+                Log.w(TAG, "can not get memory info of activity manager", e);
+            }
+            Log.i(TAG, "lmk threshold: " + mLmkThreshold + "kb");
+        }
+        return mLmkThreshold;
+    }
+
+    @Override
+    public SystemMemory collect(TargetApp targetApp, long timestamp, ProfileNtf.Builder data) throws Exception {
+        Log.v(TAG, "collect system memory data: timestamp=" + timestamp);
+        SystemMemory.Builder builder = SystemMemory.newBuilder();
+
+        long available = 0;
+        if (mMeminfo.read()) {
+            long free = readMeminfo("MemFree:");
+            long cached = readMeminfo("Cached:");
+            available = readMeminfo("MemAvailable:");
+            if (available < 0) { // before linux 3.14
+                available = Math.max(free, 0) + Math.max(cached, 0);
+            }
+            builder.setMemTotal((int) readMeminfo("MemTotal:"))
+                    .setMemAvailable((int) available)
+                    .setMemFree((int) free)
+                    .setCached((int) cached)
+                    .setBuffers((int) readMeminfo("Buffers:"))
+                    .setSwapTotal((int) readMeminfo("SwapTotal:"))
+                    .setSwapFree((int) readMeminfo("SwapFree:"));
+        }
+
+        if (mZram.read()) { // bytes: orig_data_size compr_data_size mem_used_total ...
+            builder.setZramOrigData((int) (mZram.nextLong(0) / 1024))
+                    .setZramComprData((int) (mZram.nextLong(0) / 1024))
+                    .setZramMemUsed((int) (mZram.nextLong(0) / 1024));
+        }
+
+        long now = SystemClock.elapsedRealtime() * 1000;
+        if (mPressure.read()) {
+            long someTotal = mPressure.findLine("some") && mPressure.seekInLine("total=") ? mPressure.nextLong(-1) : -1;
+            long fullTotal = mPressure.findLine("full") && mPressure.seekInLine("total=") ? mPressure.nextLong(-1) : -1;
+            builder.setPsiSupported(someTotal >= 0);
+            long interval = mLastTime > 0 ? now - mLastTime : 0;
+            if (interval > 0 && someTotal >= 0 && mLastSomeTotal >= 0) {
+                builder.setPsiSome(Math.min(100f, (someTotal - mLastSomeTotal) * 100f / interval));
+            }
+            if (interval > 0 && fullTotal >= 0 && mLastFullTotal >= 0) {
+                builder.setPsiFull(Math.min(100f, (fullTotal - mLastFullTotal) * 100f / interval));
+            }
+            mLastSomeTotal = someTotal;
+            mLastFullTotal = fullTotal;
+        }
+        mLastTime = now;
+
+        long threshold = getLmkThreshold();
+        if (threshold > 0) {
+            builder.setLmkThreshold((int) threshold).setLmkDistance((int) (available - threshold));
+        }
+
+        SystemMemory systemMemory = builder.build();
+        if (data != null) {
+            data.setSystemMemory(systemMemory);
+        }
+        return systemMemory;
+    }
+
+    @Override
+    public void setInterestingFields(Map<ProfileReq.DataType, Boolean> dataTypes) {
+        // pass
+    }
+
+    @Override
+    public void close() {
+        mMeminfo.close();
+        mZram.close();
+        mPressure.close();
+    }
+}
@@ -3,6 +3,9 @@ package com.github.sandin.miniperf.server.util;
 import android.app.ActivityManager;
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.os.Build;
+import android.system.Os;
+import android.system.OsConstants;
 import android.telephony.TelephonyManager;
 
 import java.util.List;
@@ -13,10 +16,28 @@ import java.util.List;
  */
 public final class AndroidProcessUtils {
 
+    private static int sPageSizeKb = 0;
+
     private AndroidProcessUtils() {
         // static functions only
     }
 
+    /**
+     * get memory page size
+     *
+     * @return page size in kb
+     */
+    public static int getPageSizeKb() {
+        if (sPageSizeKb == 0) {
+            int pageSizeKb = 4;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                pageSizeKb = (int) (Os.sysconf(OsConstants._SC_PAGESIZE) / 1024);
+            }
+            sPageSizeKb = pageSizeKb > 0 ? pageSizeKb : 4;
+        }
+        return sPageSizeKb;
+    }
+
     /**
      * get phone subscriber id
      *
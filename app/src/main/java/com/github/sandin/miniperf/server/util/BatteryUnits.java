@@ -0,0 +1,49 @@
+package com.github.sandin.miniperf.server.util;
+
+/**
+ * Battery Units
+ * <p>
+ * The power_supply ABI of the kernel reports current_now in uA and voltage_now in uV. Some drivers report mV, they
+ * usually report mA too, so the current unit follows the voltage unit unless the current is too large for mA.
+ */
+public final class BatteryUnits {
+
+    public static final int UNIT_UNKNOWN = 0;
+    public static final int UNIT_MICRO = 1;
+    public static final int UNIT_MILLI = 2;
+
+    /**
+     * a phone never draws more than 10A, so a larger value is in uA
+     */
+    public static final long MICRO_AMPERE_THRESHOLD = 10000;
+    /**
+     * a battery is never over 100V, so a larger value is in uV
+     */
+    public static final long MICRO_VOLT_THRESHOLD = 100000;
+
+    private BatteryUnits() {
+    }
+
+    /**
+     * @param raw voltage_now
+     * @return unit of the voltage, {@link #UNIT_UNKNOWN} if the value is not valid
+     */
+    public static int voltageUnit(long raw) {
+        if (raw <= 0) {
+            return UNIT_UNKNOWN;
+        }
+        return raw > MICRO_VOLT_THRESHOLD ? UNIT_MICRO : UNIT_MILLI;
+    }
+
+    /**
+     * @param maxRawCurrent max absolute value of current_now so far
+     * @param voltageUnit   unit of voltage_now, {@link #UNIT_UNKNOWN} if the current does not come from sysfs
+     * @return unit of the current, mA only if voltage_now is in mV
+     */
+    public static int currentUnit(long maxRawCurrent, int voltageUnit) {
+        if (maxRawCurrent > MICRO_AMPERE_THRESHOLD || voltageUnit != UNIT_MILLI) {
+            return UNIT_MICRO;
+        }
+        return UNIT_MILLI;
+    }
+}
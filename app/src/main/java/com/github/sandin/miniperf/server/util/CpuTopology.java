@@ -0,0 +1,271 @@
+package com.github.sandin.miniperf.server.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * CPU Topology
+ * <p>
+ * Cores are grouped into clusters by cpufreq policy(/sys/devices/system/cpu/cpufreq/policy*, related_cpus),
+ * clusters are sorted by max frequency: little, big, ..., prime.
+ * The core count comes from /sys/devices/system/cpu/possible, so cores which are offline at startup are counted.
+ */
+public final class CpuTopology {
+
+    public static final String CPU_SYSTEM_PATH = "/sys/devices/system/cpu";
+
+    public static final String CLUSTER_LITTLE = "little";
+    public static final String CLUSTER_BIG = "big";
+    public static final String CLUSTER_PRIME = "prime";
+
+    /**
+     * max cpu capacity of the kernel(SCHED_CAPACITY_SCALE)
+     */
+    public static final int MAX_CAPACITY = 1024;
+
+    public static class Cluster {
+        /**
+         * index in {@link CpuTopology#getClusters()}
+         */
+        public int index;
+        public String type;
+        /**
+         * cpufreq policy path, all sysfs reads of the cluster go through it
+         */
+        public String policyPath;
+        public int[] cpus;
+        public long minFreq; // kHz
+        public long maxFreq; // kHz
+        public int capacity; // 0-1024
+
+        @Override
+        public String toString() {
+            return "Cluster{" +
+                    "type=" + type +
+                    ", policyPath=" + policyPath +
+                    ", cpus=" + Arrays.toString(cpus) +
+                    ", minFreq=" + minFreq +
+                    ", maxFreq=" + maxFreq +
+                    ", capacity=" + capacity +
+                    '}';
+        }
+    }
+
+    private static volatile CpuTopology sInstance;
+
+    private final String mRootPath;
+    private int mCoreCount;
+    private final List<Cluster> mClusters = new ArrayList<>();
+    private int[] mClusterOfCpu;
+
+    /**
+     * Get the topology of this device, it is loaded once
+     */
+    public static CpuTopology getInstance() {
+        if (sInstance == null) {
+            synchronized (CpuTopology.class) {
+                if (sInstance == null) {
+                    sInstance = new CpuTopology(CPU_SYSTEM_PATH);
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param rootPath root of the cpu sysfs, "/sys/devices/system/cpu"
+     */
+    public CpuTopology(String rootPath) {
+        mRootPath = rootPath;
+        load();
+    }
+
+    public int getCoreCount() {
+        return mCoreCount;
+    }
+
+    public List<Cluster> getClusters() {
+        return mClusters;
+    }
+
+    /**
+     * @return cluster of the cpu or null if the cpu has no cpufreq policy
+     */
+    public Cluster getClusterOfCpu(int cpu) {
+        if (cpu < 0 || cpu >= mCoreCount || mClusterOfCpu[cpu] < 0) {
+            return null;
+        }
+        return mClusters.get(mClusterOfCpu[cpu]);
+    }
+
+    private static String readLine(String path) {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(path));
+            String line = reader.readLine();
+            return line != null ? line.trim() : null;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    private static long readLong(String path) {
+        String line = readLine(path);
+        if (line == null || line.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(line);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Parse a cpu list, "0-3,6" or "0 1 2 3"
+     */
+    public static int[] parseCpuList(String list) {
+        if (list == null) {
+            return new int[0];
+        }
+        List<Integer> cpus = new ArrayList<>();
+        for (String part : list.trim().split("[,\\s]+")) {
+            if (part.isEmpty()) {
+                continue;
+            }
+            try {
+                int dash = part.indexOf('-');
+                if (dash > 0) {
+                    int from = Integer.parseInt(part.substring(0, dash));
+                    int to = Integer.parseInt(part.substring(dash + 1));
+                    for (int i = from; i <= to; i++) {
+                        cpus.add(i);
+                    }
+                } else {
+                    cpus.add(Integer.parseInt(part));
+                }
+            } catch (NumberFormatException ignore) {
+            }
+        }
+        int[] result = new int[cpus.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = cpus.get(i);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    private void load() {
+        int[] possible = parseCpuList(readLine(mRootPath + "/possible"));
+        mCoreCount = possible.length > 0 ? possible[possible.length - 1] + 1 : Runtime.getRuntime().availableProcessors();
+
+        // cpufreq policies
+        String[] entries = new File(mRootPath + "/cpufreq").list();
+        if (entries != null) {
+            for (String entry : entries) {
+                if (entry.startsWith("policy")) {
+                    String policyPath = mRootPath + "/cpufreq/" + entry;
+                    addCluster(policyPath, parseCpuList(readLine(policyPath + "/related_cpus")));
+                }
+            }
+        }
+        // old kernels without policy directories
+        if (mClusters.isEmpty()) {
+            boolean[] grouped = new boolean[mCoreCount];
+            for (int i = 0; i < mCoreCount; i++) {
+                if (grouped[i]) {
+                    continue;
+                }
+                String policyPath = mRootPath + "/cpu" + i + "/cpufreq";
+                if (!new File(policyPath).exists()) {
+                    continue;
+                }
+                int[] cpus = parseCpuList(readLine(policyPath + "/related_cpus"));
+                if (cpus.length == 0) {
+                    cpus = new int[]{i};
+                }
+                for (int cpu : cpus) {
+                    if (cpu < mCoreCount) {
+                        grouped[cpu] = true;
+                    }
+                }
+                addCluster(policyPath, cpus);
+            }
+        }
+
+        Collections.sort(mClusters, new Comparator<Cluster>() {
+            @Override
+            public int compare(Cluster o1, Cluster o2) {
+                if (o1.maxFreq != o2.maxFreq) {
+                    return o1.maxFreq < o2.maxFreq ? -1 : 1;
+                }
+                return o1.cpus[0] - o2.cpus[0];
+            }
+        });
+
+        long maxFreq = 0;
+        for (Cluster cluster : mClusters) {
+            maxFreq = Math.max(maxFreq, cluster.maxFreq);
+        }
+        mClusterOfCpu = new int[mCoreCount];
+        Arrays.fill(mClusterOfCpu, -1);
+        int count = mClusters.size();
+        for (int i = 0; i < count; i++) {
+            Cluster cluster = mClusters.get(i);
+            cluster.index = i;
+            if (i == 0) {
+                cluster.type = CLUSTER_LITTLE;
+            } else if (i == count - 1 && count >= 3) {
+                cluster.type = CLUSTER_PRIME;
+            } else {
+                cluster.type = CLUSTER_BIG;
+            }
+            int capacity = (int) readLong(mRootPath + "/cpu" + cluster.cpus[0] + "/cpu_capacity");
+            if (capacity <= 0 && maxFreq > 0) {
+                capacity = (int) (cluster.maxFreq * MAX_CAPACITY / maxFreq);
+            }
+            cluster.capacity = capacity;
+            for (int cpu : cluster.cpus) {
+                if (cpu < mCoreCount) {
+                    mClusterOfCpu[cpu] = i;
+                }
+            }
+        }
+    }
+
+    private void addCluster(String policyPath, int[] cpus) {
+        if (cpus.length == 0) {
+            return;
+        }
+        Cluster cluster = new Cluster();
+        cluster.policyPath = policyPath;
+        cluster.cpus = cpus;
+        cluster.minFreq = readLong(policyPath + "/cpuinfo_min_freq");
+        cluster.maxFreq = readLong(policyPath + "/cpuinfo_max_freq");
+        mClusters.add(cluster);
+    }
+
+    @Override
+    public String toString() {
+        return "CpuTopology{" +
+                "coreCount=" + mCoreCount +
+                ", clusters=" + mClusters +
+                '}';
+    }
+}
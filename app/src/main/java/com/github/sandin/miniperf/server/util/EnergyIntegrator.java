@@ -0,0 +1,102 @@
+package com.github.sandin.miniperf.server.util;
+
+/**
+ * Energy Integrator
+ * <p>
+ * Integrate power samples(mW) over time by the trapezoidal rule, the energy(mJ) and the average power are kept for
+ * the current tick and for the whole session.
+ */
+public final class EnergyIntegrator {
+
+    private long mLastTime = -1; // ms
+    private float mLastPower = 0; // mW
+
+    private double mTickEnergy = 0; // mJ
+    private long mTickDuration = 0; // ms
+    private int mTickSampleCount = 0;
+
+    private double mSessionEnergy = 0; // mJ
+    private long mSessionDuration = 0; // ms
+
+    /**
+     * Add a sample
+     *
+     * @param time  timestamp(ms), monotonic
+     * @param power power(mW)
+     */
+    public void add(long time, float power) {
+        if (mLastTime >= 0) {
+            long dt = time - mLastTime;
+            if (dt <= 0) {
+                return;
+            }
+            double energy = (mLastPower + power) / 2.0 * dt / 1000.0;
+            mTickEnergy += energy;
+            mTickDuration += dt;
+            mSessionEnergy += energy;
+            mSessionDuration += dt;
+        }
+        mLastTime = time;
+        mLastPower = power;
+        mTickSampleCount++;
+    }
+
+    /**
+     * @return energy since the last {@link #endTick()}(mJ)
+     */
+    public float getTickEnergy() {
+        return (float) mTickEnergy;
+    }
+
+    /**
+     * @return average power since the last {@link #endTick()}(mW), the last sample if there is no interval yet
+     */
+    public float getTickPower() {
+        return mTickDuration > 0 ? (float) (mTickEnergy * 1000 / mTickDuration) : mLastPower;
+    }
+
+    /**
+     * @return count of samples since the last {@link #endTick()}
+     */
+    public int getTickSampleCount() {
+        return mTickSampleCount;
+    }
+
+    /**
+     * @return energy since the first sample(mJ)
+     */
+    public double getSessionEnergy() {
+        return mSessionEnergy;
+    }
+
+    /**
+     * @return average power since the first sample(mW)
+     */
+    public float getSessionPower() {
+        return mSessionDuration > 0 ? (float) (mSessionEnergy * 1000 / mSessionDuration) : mLastPower;
+    }
+
+    /**
+     * @return time since the first sample(ms)
+     */
+    public long getSessionDuration() {
+        return mSessionDuration;
+    }
+
+    /**
+     * Start a new tick, the interval between the last sample and the next one goes to the new tick
+     */
+    public void endTick() {
+        mTickEnergy = 0;
+        mTickDuration = 0;
+        mTickSampleCount = 0;
+    }
+
+    public void reset() {
+        endTick();
+        mLastTime = -1;
+        mLastPower = 0;
+        mSessionEnergy = 0;
+        mSessionDuration = 0;
+    }
+}
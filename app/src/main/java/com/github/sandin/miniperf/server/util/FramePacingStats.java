@@ -0,0 +1,141 @@
+package com.github.sandin.miniperf.server.util;
+
+/**
+ * Frame pacing of the present timestamps
+ * <p>
+ * The mean and the standard deviation of the frame times are accumulated in one pass with Welford's algorithm.
+ * <p>
+ * A frame is presented on a vsync, it spans k = round(frame time / refresh period) vsyncs. The cadence is the most
+ * frequent k(e.g. 2 for 60fps on a 120Hz display), a frame of another k is off cadence, a frame of more vsyncs than the
+ * cadence is a long frame and consecutive long frames are a streak. An average of 60fps made of 1 and 3 vsync frames
+ * looks smooth in the fps but not on the screen.
+ * <p>
+ * The counts of k are halved at every {@link #reset()}, so the cadence follows the recent frames. All frame times are in
+ * us, every frame is O(1).
+ */
+public final class FramePacingStats {
+
+    /**
+     * frames of more vsyncs are counted as this
+     */
+    private static final int MAX_MULTIPLE = 16;
+
+    private final int[] mMultipleCounts = new int[MAX_MULTIPLE + 1];
+    private long mRefreshPeriod = 0; // us
+    private int mCadence = 0;
+
+    // Welford
+    private int mCount = 0;
+    private double mMean = 0;
+    private double mM2 = 0;
+
+    private int mOffCadenceFrames = 0;
+    private int mLongFrames = 0;
+    private int mStreak = 0;
+    private int mMaxStreak = 0;
+
+    /**
+     * Set the current refresh period of the display, the cadence is reset if it is changed
+     *
+     * @param refreshPeriod refresh period(ns), ignored if it is not positive
+     */
+    public void setRefreshPeriod(long refreshPeriod) {
+        if (refreshPeriod <= 0) {
+            return;
+        }
+        long period = refreshPeriod / 1000;
+        if (period != mRefreshPeriod) {
+            mRefreshPeriod = period;
+            mCadence = 0;
+            for (int i = 0; i < mMultipleCounts.length; i++) {
+                mMultipleCounts[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Add a frame
+     *
+     * @param frameTime frame time(us)
+     */
+    public void addFrame(long frameTime) {
+        mCount++;
+        double delta = frameTime - mMean;
+        mMean += delta / mCount;
+        mM2 += delta * (frameTime - mMean);
+
+        if (mRefreshPeriod <= 0) {
+            return;
+        }
+        int multiple = (int) Math.min(Math.max((frameTime + mRefreshPeriod / 2) / mRefreshPeriod, 1), MAX_MULTIPLE);
+        if (mCadence > 0 && multiple != mCadence) {
+            mOffCadenceFrames++;
+        }
+        if (mCadence > 0 && multiple > mCadence) {
+            mLongFrames++;
+            mStreak++;
+            mMaxStreak = Math.max(mMaxStreak, mStreak);
+        } else {
+            mStreak = 0;
+        }
+        mMultipleCounts[multiple]++;
+        if (mCadence == 0 || mMultipleCounts[multiple] > mMultipleCounts[mCadence]) {
+            mCadence = multiple;
+        }
+    }
+
+    /**
+     * Reset the statistics of the frames, the counts of vsync multiples are halved and the current streak is kept
+     */
+    public void reset() {
+        mCount = 0;
+        mMean = 0;
+        mM2 = 0;
+        mOffCadenceFrames = 0;
+        mLongFrames = 0;
+        mMaxStreak = mStreak;
+        for (int i = 0; i < mMultipleCounts.length; i++) {
+            mMultipleCounts[i] >>= 1;
+        }
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return mean of the frame times(us)
+     */
+    public double getMean() {
+        return mMean;
+    }
+
+    /**
+     * @return standard deviation of the frame times(us)
+     */
+    public double getStdDev() {
+        return mCount > 1 ? Math.sqrt(mM2 / mCount) : 0;
+    }
+
+    /**
+     * @return vsyncs per frame of the cadence, 0 if unknown
+     */
+    public int getCadence() {
+        return mCadence;
+    }
+
+    public int getOffCadenceFrames() {
+        return mOffCadenceFrames;
+    }
+
+    public int getLongFrames() {
+        return mLongFrames;
+    }
+
+    /**
+     * @return the longest run of consecutive long frames
+     */
+    public int getMaxLongFrameStreak() {
+        return mMaxStreak;
+    }
+}
@@ -0,0 +1,133 @@
+package com.github.sandin.miniperf.server.util;
+
+import java.util.Arrays;
+
+/**
+ * Fixed memory histogram of frame times(us)
+ * <p>
+ * Log-linear buckets like HdrHistogram: values below 32us have their own bucket, above that every power of two
+ * is split into 16 sub buckets, a percentile is the middle of its bucket so the relative error is less than ~3%.
+ * Values larger than {@link #MAX_VALUE} are clamped.
+ */
+public final class FrameTimeHistogram {
+
+    /**
+     * max trackable value(us), 10s
+     */
+    public static final long MAX_VALUE = 10000000;
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS; // 32
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1; // 16
+    private static final int BUCKET_COUNT = indexOf(MAX_VALUE) + 1;
+
+    private final int[] mCounts = new int[BUCKET_COUNT];
+    private long mTotalCount = 0;
+    private long mSum = 0;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax = 0;
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) Math.max(value, 0);
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - (SUB_BUCKET_BITS - 1);
+        int subBucket = (int) (value >> shift); // [16, 32)
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT + (subBucket - SUB_BUCKET_HALF_COUNT);
+    }
+
+    static long lowestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int k = index - SUB_BUCKET_COUNT;
+        int shift = k / SUB_BUCKET_HALF_COUNT + 1;
+        long subBucket = k % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        return subBucket << shift;
+    }
+
+    static long highestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        return lowestValueAt(index + 1) - 1;
+    }
+
+    /**
+     * Record a frame time
+     *
+     * @param value frame time(us)
+     */
+    public void record(long value) {
+        if (value < 0) {
+            return;
+        }
+        value = Math.min(value, MAX_VALUE);
+        mCounts[indexOf(value)]++;
+        mTotalCount++;
+        mSum += value;
+        mMin = Math.min(mMin, value);
+        mMax = Math.max(mMax, value);
+    }
+
+    /**
+     * Merge the values of another histogram into this one
+     */
+    public void add(FrameTimeHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts[i] += other.mCounts[i];
+        }
+        mTotalCount += other.mTotalCount;
+        mSum += other.mSum;
+        mMin = Math.min(mMin, other.mMin);
+        mMax = Math.max(mMax, other.mMax);
+    }
+
+    public void reset() {
+        Arrays.fill(mCounts, 0);
+        mTotalCount = 0;
+        mSum = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = 0;
+    }
+
+    public long getCount() {
+        return mTotalCount;
+    }
+
+    public long getMin() {
+        return mTotalCount > 0 ? mMin : 0;
+    }
+
+    public long getMax() {
+        return mMax;
+    }
+
+    public double getMean() {
+        return mTotalCount > 0 ? (double) mSum / mTotalCount : 0;
+    }
+
+    /**
+     * Get the value at a percentile
+     *
+     * @param percentile 0-100
+     * @return the middle value of the bucket(clamped to the recorded min and max), 0 if empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (mTotalCount == 0) {
+            return 0;
+        }
+        percentile = Math.min(Math.max(percentile, 0), 100);
+        long countAtPercentile = Math.max((long) Math.ceil(percentile / 100 * mTotalCount), 1);
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += mCounts[i];
+            if (count >= countAtPercentile) {
+                long value = (lowestValueAt(i) + highestValueAt(i)) / 2;
+                return Math.max(Math.min(value, mMax), mMin);
+            }
+        }
+        return mMax;
+    }
+}
@@ -0,0 +1,230 @@
+package com.github.sandin.miniperf.server.util;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parser of `dumpsys gfxinfo <packageName> framestats`
+ * <p>
+ * Every window has a block of CSV rows(the last 120 frames) between "---PROFILEDATA---" lines,
+ * the first row is the header, the columns depend on the android version so they are looked up by name.
+ * Rows are scanned char by char, no strings are split.
+ * <p>
+ * The windows of two polls overlap, a frame is identified by its FrameCompleted timestamp and the frames
+ * which were seen in the previous poll are dropped.
+ */
+public final class GfxInfoFrameStatsParser {
+
+    private static final String PROFILE_DATA_MARKER = "---PROFILEDATA---";
+
+    public static final int FLAGS = 0;
+    public static final int INTENDED_VSYNC = 1;
+    public static final int VSYNC = 2;
+    public static final int HANDLE_INPUT_START = 3;
+    public static final int ANIMATION_START = 4;
+    public static final int PERFORM_TRAVERSALS_START = 5;
+    public static final int DRAW_START = 6;
+    public static final int SYNC_QUEUED = 7;
+    public static final int SYNC_START = 8;
+    public static final int ISSUE_DRAW_COMMANDS_START = 9;
+    public static final int SWAP_BUFFERS = 10;
+    public static final int FRAME_COMPLETED = 11;
+    public static final int GPU_COMPLETED = 12;
+    public static final int FRAME_DEADLINE = 13; // android 12+
+    public static final int FRAME_INTERVAL = 14; // android 12+
+
+    private static final String[] COLUMN_NAMES = {
+            "Flags", "IntendedVsync", "Vsync", "HandleInputStart", "AnimationStart", "PerformTraversalsStart",
+            "DrawStart", "SyncQueued", "SyncStart", "IssueDrawCommandsStart", "SwapBuffers", "FrameCompleted",
+            "GpuCompleted", "FrameDeadline", "FrameInterval"
+    };
+
+    /**
+     * A frame, values of the columns which are not in the output are 0
+     */
+    public static final class Frame {
+        private final long[] mValues = new long[COLUMN_NAMES.length];
+
+        /**
+         * @param column column, {@link #FLAGS}, {@link #INTENDED_VSYNC}...
+         * @return timestamp(ns) or value of the column
+         */
+        public long get(int column) {
+            return mValues[column];
+        }
+
+        /**
+         * @return to - from(ns), 0 if any of them is missing or negative
+         */
+        public long duration(int from, int to) {
+            long start = mValues[from];
+            long end = mValues[to];
+            return start > 0 && end > start ? end - start : 0;
+        }
+    }
+
+    public interface Listener {
+
+        /**
+         * A new frame(flags is 0 and not seen in the previous poll)
+         *
+         * @param frame the frame, it is reused for the next frame
+         */
+        void onFrame(Frame frame);
+    }
+
+    private final Frame mFrame = new Frame();
+    /**
+     * column of each field of the current header, -1 if the field is not used
+     */
+    private int[] mFieldColumns = new int[32];
+    private int mFieldCount = 0;
+    private int mFrameCompletedField = -1;
+
+    /**
+     * FrameCompleted of the frames of the previous poll and of this poll, sorted
+     */
+    private long[] mLastKeys = new long[256];
+    private int mLastKeyCount = 0;
+    private long[] mKeys = new long[256];
+    private int mKeyCount = 0;
+    private boolean mFirstPoll = true;
+    private boolean mOverlap = false;
+
+    /**
+     * Parse the output of one poll
+     *
+     * @param lines    lines of the output
+     * @param listener listener of the new frames
+     * @return count of new frames
+     */
+    public int parse(List<String> lines, Listener listener) {
+        mKeyCount = 0;
+        mOverlap = false;
+        int newFrames = 0;
+        boolean inBlock = false;
+        boolean expectHeader = false;
+        for (String line : lines) {
+            if (line.startsWith(PROFILE_DATA_MARKER)) {
+                inBlock = !inBlock;
+                expectHeader = inBlock;
+                continue;
+            }
+            if (!inBlock || line.isEmpty()) {
+                continue;
+            }
+            if (expectHeader) {
+                parseHeader(line);
+                expectHeader = false;
+                continue;
+            }
+            if (mFrameCompletedField < 0 || !parseRow(line) || mFrame.get(FLAGS) != 0) {
+                continue;
+            }
+            long key = mFrame.get(FRAME_COMPLETED);
+            if (key <= 0) {
+                continue;
+            }
+            addKey(key);
+            if (Arrays.binarySearch(mLastKeys, 0, mLastKeyCount, key) >= 0) {
+                mOverlap = true;
+                continue;
+            }
+            if (!mFirstPoll) { // the first poll only records the frames which were already there
+                newFrames++;
+                listener.onFrame(mFrame);
+            }
+        }
+
+        Arrays.sort(mKeys, 0, mKeyCount);
+        long[] t = mLastKeys;
+        mLastKeys = mKeys;
+        mLastKeyCount = mKeyCount;
+        mKeys = t;
+        if (mLastKeyCount > 0) { // the baseline is the first poll which has rows
+            mFirstPoll = false;
+        }
+        return newFrames;
+    }
+
+    /**
+     * @return whether the last poll overlapped with the previous one, if not some frames were missed
+     */
+    public boolean isOverlapped() {
+        return mOverlap;
+    }
+
+    private void addKey(long key) {
+        if (mKeyCount == mKeys.length) {
+            mKeys = Arrays.copyOf(mKeys, mKeys.length * 2);
+        }
+        mKeys[mKeyCount++] = key;
+    }
+
+    private void parseHeader(String line) {
+        mFieldCount = 0;
+        mFrameCompletedField = -1;
+        int length = line.length();
+        int start = 0;
+        while (start <= length) {
+            int end = line.indexOf(',', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end == start && end == length) {
+                break; // trailing comma
+            }
+            int column = -1;
+            for (int i = 0; i < COLUMN_NAMES.length; i++) {
+                String name = COLUMN_NAMES[i];
+                if (end - start == name.length() && line.regionMatches(start, name, 0, name.length())) {
+                    column = i;
+                    break;
+                }
+            }
+            if (mFieldCount == mFieldColumns.length) {
+                mFieldColumns = Arrays.copyOf(mFieldColumns, mFieldColumns.length * 2);
+            }
+            if (column == FRAME_COMPLETED) {
+                mFrameCompletedField = mFieldCount;
+            }
+            mFieldColumns[mFieldCount++] = column;
+            start = end + 1;
+        }
+    }
+
+    private boolean parseRow(String line) {
+        Arrays.fill(mFrame.mValues, 0);
+        int length = line.length();
+        int field = 0;
+        int pos = 0;
+        while (pos < length && field < mFieldCount) {
+            long value = 0;
+            boolean negative = false;
+            boolean digits = false;
+            if (line.charAt(pos) == '-') {
+                negative = true;
+                pos++;
+            }
+            while (pos < length) {
+                char c = line.charAt(pos);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                value = value * 10 + (c - '0');
+                digits = true;
+                pos++;
+            }
+            if (pos < length && line.charAt(pos) != ',') {
+                return false; // not a data row
+            }
+            int column = mFieldColumns[field];
+            if (column >= 0 && digits) {
+                mFrame.mValues[column] = negative ? -value : value;
+            }
+            field++;
+            pos++; // ','
+        }
+        return field > mFrameCompletedField;
+    }
+}
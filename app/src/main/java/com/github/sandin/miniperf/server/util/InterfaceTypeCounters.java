@@ -0,0 +1,91 @@
+package com.github.sandin.miniperf.server.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Traffic counters summed by interface type, the name of the interface without the trailing number
+ * (wlan0 -> wlan, rmnet_data1 -> rmnet_data, v4-rmnet_data0 -> v4-rmnet_data)
+ * <p>
+ * The types are matched against the bytes of the name in place, a string is only allocated the first time a type is
+ * seen. Types are only appended so the indexes are stable.
+ */
+public final class InterfaceTypeCounters {
+
+    public static final int RX_BYTES = 0;
+    public static final int RX_PACKETS = 1;
+    public static final int TX_BYTES = 2;
+    public static final int TX_PACKETS = 3;
+    public static final int COUNTER_COUNT = 4;
+
+    private final List<String> mTypes = new ArrayList<>();
+    private final List<long[]> mCounters = new ArrayList<>();
+
+    /**
+     * Set all the counters to 0, the types are kept
+     */
+    public void clear() {
+        for (long[] counters : mCounters) {
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Counters of the type of an interface name
+     *
+     * @param buffer buffer of the name
+     * @param start  start of the name
+     * @param end    end of the name(exclusive), the name also ends at a space or a ':'
+     * @return counters, {@link #RX_BYTES}...
+     */
+    public long[] get(byte[] buffer, int start, int end) {
+        int typeEnd = start;
+        while (typeEnd < end && buffer[typeEnd] != ' ' && buffer[typeEnd] != ':') {
+            typeEnd++;
+        }
+        while (typeEnd > start && buffer[typeEnd - 1] >= '0' && buffer[typeEnd - 1] <= '9') {
+            typeEnd--; // only the trailing number: v4-rmnet_data0 -> v4-rmnet_data, p2p0 -> p2p
+        }
+        int length = typeEnd - start;
+        for (int i = 0; i < mTypes.size(); i++) {
+            String type = mTypes.get(i);
+            if (type.length() == length && matches(buffer, start, type)) {
+                return mCounters.get(i);
+            }
+        }
+        mTypes.add(new String(buffer, start, length));
+        long[] counters = new long[COUNTER_COUNT];
+        mCounters.add(counters);
+        return counters;
+    }
+
+    private static boolean matches(byte[] buffer, int start, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (buffer[start + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return count of the types which have ever been seen
+     */
+    public int size() {
+        return mTypes.size();
+    }
+
+    public String getType(int index) {
+        return mTypes.get(index);
+    }
+
+    /**
+     * @param index   index of the type
+     * @param counter {@link #RX_BYTES}, {@link #RX_PACKETS}, {@link #TX_BYTES} or {@link #TX_PACKETS}
+     */
+    public long get(int index, int counter) {
+        return mCounters.get(index)[counter];
+    }
+}
@@ -0,0 +1,172 @@
+package com.github.sandin.miniperf.server.util;
+
+/**
+ * Jank Detector
+ * <p>
+ * PerfDog rules, a frame is a:
+ * <ul>
+ * <li>Jank: frame time > 2 * average of the previous 3 frames and frame time > 2 movie frames(2 * 1000 / 24 ms)</li>
+ * <li>BigJank: frame time > 2 * average of the previous 3 frames and frame time > 3 movie frames(3 * 1000 / 24 ms)</li>
+ * </ul>
+ * Stutter is the time of jank frames / the time of all frames, on a rolling window.
+ * <p>
+ * The refresh period of the display(it may change at any time on variable refresh rate displays) is used to count
+ * the vsyncs which were missed: a frame of N refresh periods missed N - 1 vsyncs.
+ * <p>
+ * All frame times are in us, every frame is O(1).
+ */
+public final class JankDetector {
+
+    public static final int NO_JANK = 0;
+    public static final int JANK = 1;
+    public static final int BIG_JANK = 2;
+
+    /**
+     * frame time of a 24fps movie(us)
+     */
+    public static final long MOVIE_FRAME_TIME = 1000000 / 24;
+
+    private static final int HISTORY_SIZE = 3;
+
+    private final long mWindowTime; // us
+    private final LongRingBuffer mWindowFrameTimes;
+    private final LongRingBuffer mWindowJankTimes;
+    private long mWindowTotalTime = 0;
+    private long mWindowTotalJankTime = 0;
+
+    private final long[] mHistory = new long[HISTORY_SIZE];
+    private int mHistoryCount = 0;
+    private int mHistoryIndex = 0;
+    private long mHistorySum = 0;
+
+    private long mRefreshPeriod = 0; // us
+
+    private int mJank = 0;
+    private int mBigJank = 0;
+    private int mMissedVsync = 0;
+
+    /**
+     * Constructor
+     *
+     * @param windowTime   time of the stutter window(us)
+     * @param windowFrames max frames of the stutter window
+     */
+    public JankDetector(long windowTime, int windowFrames) {
+        mWindowTime = windowTime;
+        mWindowFrameTimes = new LongRingBuffer(windowFrames);
+        mWindowJankTimes = new LongRingBuffer(windowFrames);
+    }
+
+    /**
+     * Set the current refresh period of the display
+     *
+     * @param refreshPeriod refresh period(ns), ignored if it is not positive
+     * @return true if the refresh period is changed
+     */
+    public boolean setRefreshPeriod(long refreshPeriod) {
+        if (refreshPeriod <= 0) {
+            return false;
+        }
+        long period = refreshPeriod / 1000;
+        if (period == mRefreshPeriod) {
+            return false;
+        }
+        mRefreshPeriod = period;
+        return true;
+    }
+
+    /**
+     * @return refresh rate(Hz), 0 if unknown
+     */
+    public float getRefreshRate() {
+        return mRefreshPeriod > 0 ? 1e6f / mRefreshPeriod : 0;
+    }
+
+    /**
+     * Add a frame
+     *
+     * @param frameTime frame time(us)
+     * @return {@link #NO_JANK}, {@link #JANK} or {@link #BIG_JANK}
+     */
+    public int addFrame(long frameTime) {
+        int result = NO_JANK;
+        if (mHistoryCount == HISTORY_SIZE) {
+            long twiceAverage = mHistorySum * 2 / HISTORY_SIZE;
+            if (frameTime > twiceAverage) {
+                if (frameTime > MOVIE_FRAME_TIME * 3) {
+                    result = BIG_JANK;
+                } else if (frameTime > MOVIE_FRAME_TIME * 2) {
+                    result = JANK;
+                }
+            }
+        }
+        if (result != NO_JANK) {
+            mJank++;
+            if (result == BIG_JANK) {
+                mBigJank++;
+            }
+        }
+
+        // missed vsync, +half period for the jitter of the present time
+        if (mRefreshPeriod > 0 && frameTime > mRefreshPeriod) {
+            mMissedVsync += (int) ((frameTime + mRefreshPeriod / 2) / mRefreshPeriod) - 1;
+        }
+
+        // previous 3 frames
+        if (mHistoryCount == HISTORY_SIZE) {
+            mHistorySum -= mHistory[mHistoryIndex];
+        } else {
+            mHistoryCount++;
+        }
+        mHistory[mHistoryIndex] = frameTime;
+        mHistorySum += frameTime;
+        mHistoryIndex = (mHistoryIndex + 1) % HISTORY_SIZE;
+
+        // stutter window
+        long jankTime = result != NO_JANK ? frameTime : 0;
+        if (mWindowFrameTimes.isFull()) {
+            evictOldest();
+        }
+        mWindowFrameTimes.add(frameTime);
+        mWindowJankTimes.add(jankTime);
+        mWindowTotalTime += frameTime;
+        mWindowTotalJankTime += jankTime;
+        while (mWindowFrameTimes.size() > 1 && mWindowTotalTime - mWindowFrameTimes.first() >= mWindowTime) {
+            evictOldest();
+        }
+        return result;
+    }
+
+    private void evictOldest() {
+        mWindowTotalTime -= mWindowFrameTimes.removeFirst();
+        mWindowTotalJankTime -= mWindowJankTimes.removeFirst();
+    }
+
+    /**
+     * @return stutter of the window(%)
+     */
+    public float getStutter() {
+        return mWindowTotalTime > 0 ? mWindowTotalJankTime * 100f / mWindowTotalTime : 0;
+    }
+
+    public int getJank() {
+        return mJank;
+    }
+
+    public int getBigJank() {
+        return mBigJank;
+    }
+
+    public int getMissedVsync() {
+        return mMissedVsync;
+    }
+
+    /**
+     * Reset the counters of jank, big jank and missed vsync, the history and the window are kept
+     */
+    public void resetCounters() {
+        mJank = 0;
+        mBigJank = 0;
+        mMissedVsync = 0;
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.sandin.miniperf.server.util;
+
+/**
+ * Ring buffer of primitive longs, the oldest value is overwritten when it is full
+ */
+public final class LongRingBuffer {
+
+    private final long[] mValues;
+    private final int mMask;
+    private int mHead = 0; // index of the oldest value
+    private int mSize = 0;
+
+    /**
+     * Constructor
+     *
+     * @param capacity capacity, rounded up to a power of two
+     */
+    public LongRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mValues = new long[size];
+        mMask = size - 1;
+    }
+
+    public int capacity() {
+        return mValues.length;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public void clear() {
+        mHead = 0;
+        mSize = 0;
+    }
+
+    public void add(long value) {
+        if (mSize == mValues.length) {
+            mValues[mHead] = value;
+            mHead = (mHead + 1) & mMask;
+        } else {
+            mValues[(mHead + mSize) & mMask] = value;
+            mSize++;
+        }
+    }
+
+    /**
+     * Remove the oldest value
+     *
+     * @return the removed value
+     */
+    public long removeFirst() {
+        long value = first();
+        mHead = (mHead + 1) & mMask;
+        mSize--;
+        return value;
+    }
+
+    public boolean isFull() {
+        return mSize == mValues.length;
+    }
+
+    /**
+     * @param index 0 is the oldest value
+     */
+    public long get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index=" + index + ", size=" + mSize);
+        }
+        return mValues[(mHead + index) & mMask];
+    }
+
+    public long first() {
+        return get(0);
+    }
+
+    public long last() {
+        return get(mSize - 1);
+    }
+}
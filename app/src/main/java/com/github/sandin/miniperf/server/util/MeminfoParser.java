@@ -0,0 +1,380 @@
+package com.github.sandin.miniperf.server.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parser of `dumpsys meminfo <pid> --local`
+ * <p>
+ * One pass over the (trimmed) lines, a row is a label followed by numbers, the label is looked up in the tables of
+ * categories("Native Heap", "GL mtrack"...) and of the App Summary("Java Heap:", "Code:"...), other rows are ignored.
+ * The columns depend on the android version(Rss Total is added in android 11, 4.4 has Shared columns), they are
+ * looked up by the two header lines, e.g. "Pss" over "Total". No regex, no split.
+ * <pre>
+ *                    Pss  Private  Private  SwapPss      Rss     Heap     Heap     Heap
+ *                  Total    Dirty    Clean    Dirty    Total     Size    Alloc     Free
+ *                 ------   ------   ------   ------   ------   ------   ------   ------
+ *   Native Heap    12345    12300        0       10    13000    20480    15000     5000
+ *  ...
+ *  App Summary
+ *                        Pss(KB)                        Rss(KB)
+ *            Java Heap:     4900                          5000
+ *            TOTAL PSS:    30000            TOTAL RSS:   50000      TOTAL SWAP PSS:       10
+ * </pre>
+ */
+public final class MeminfoParser {
+
+    // columns
+    public static final int PSS_TOTAL = 0;
+    public static final int PRIVATE_DIRTY = 1;
+    public static final int PRIVATE_CLEAN = 2;
+    public static final int SWAP_PSS_DIRTY = 3;
+    public static final int RSS_TOTAL = 4;
+    public static final int HEAP_SIZE = 5;
+    public static final int HEAP_ALLOC = 6;
+    public static final int HEAP_FREE = 7;
+    private static final String[][] COLUMN_NAMES = {
+            {"Pss", "Total"}, {"Private", "Dirty"}, {"Private", "Clean"}, {"SwapPss", "Dirty"},
+            {"Rss", "Total"}, {"Heap", "Size"}, {"Heap", "Alloc"}, {"Heap", "Free"}
+    };
+    public static final int COLUMN_COUNT = COLUMN_NAMES.length;
+
+    // categories
+    public static final int NATIVE_HEAP = 0;
+    public static final int DALVIK_HEAP = 1;
+    public static final int DALVIK_OTHER = 2;
+    public static final int STACK = 3;
+    public static final int ASHMEM = 4;
+    public static final int GFX_DEV = 5;
+    public static final int OTHER_DEV = 6;
+    public static final int SO_MMAP = 7;
+    public static final int JAR_MMAP = 8;
+    public static final int APK_MMAP = 9;
+    public static final int TTF_MMAP = 10;
+    public static final int DEX_MMAP = 11;
+    public static final int OAT_MMAP = 12;
+    public static final int ART_MMAP = 13;
+    public static final int VDEX_MMAP = 14;
+    public static final int OTHER_MMAP = 15;
+    public static final int EGL_MTRACK = 16;
+    public static final int GL_MTRACK = 17;
+    public static final int OTHER_MTRACK = 18;
+    public static final int UNKNOWN = 19;
+    public static final int TOTAL = 20;
+    public static final String[] CATEGORY_NAMES = {
+            "Native Heap", "Dalvik Heap", "Dalvik Other", "Stack", "Ashmem", "Gfx dev", "Other dev", ".so mmap",
+            ".jar mmap", ".apk mmap", ".ttf mmap", ".dex mmap", ".oat mmap", ".art mmap", ".vdex mmap", "Other mmap",
+            "EGL mtrack", "GL mtrack", "Other mtrack", "Unknown", "TOTAL"
+    };
+    public static final int CATEGORY_COUNT = CATEGORY_NAMES.length;
+
+    // app summary, pss(kb)
+    public static final int SUMMARY_JAVA_HEAP = 0;
+    public static final int SUMMARY_NATIVE_HEAP = 1;
+    public static final int SUMMARY_CODE = 2;
+    public static final int SUMMARY_STACK = 3;
+    public static final int SUMMARY_GRAPHICS = 4;
+    public static final int SUMMARY_PRIVATE_OTHER = 5;
+    public static final int SUMMARY_SYSTEM = 6;
+    public static final int SUMMARY_TOTAL = 7;
+    private static final String[] SUMMARY_NAMES = {
+            "Java Heap:", "Native Heap:", "Code:", "Stack:", "Graphics:", "Private Other:", "System:", "TOTAL PSS:"
+    };
+    private static final String SUMMARY_TOTAL_OLD_NAME = "TOTAL:"; // before android 10
+    private static final String TOTAL_SWAP_PSS = "TOTAL SWAP PSS:";
+    public static final int SUMMARY_COUNT = SUMMARY_NAMES.length;
+
+    private static final String TOTAL_PSS_BY_PROCESS = "Total PSS by process:";
+    private static final String PID_PREFIX = "(pid ";
+
+    private final long[][] mCategories = new long[CATEGORY_COUNT][COLUMN_COUNT];
+    private final boolean[] mHasCategory = new boolean[CATEGORY_COUNT];
+    private final long[] mSummary = new long[SUMMARY_COUNT];
+    private long mTotalSwapPss = 0;
+
+    /**
+     * column of each number of a row, -1 if it is not used
+     */
+    private int[] mColumnMap = new int[16];
+    private int mColumnMapSize = 0;
+    private String mPrevLine;
+    private final long[] mRow = new long[32];
+
+    /**
+     * Parse the output, the values of the previous output are cleared
+     *
+     * @param lines trimmed lines
+     */
+    public void parse(List<String> lines) {
+        for (long[] values : mCategories) {
+            Arrays.fill(values, 0);
+        }
+        Arrays.fill(mHasCategory, false);
+        Arrays.fill(mSummary, 0);
+        mTotalSwapPss = 0;
+        setDefaultColumns();
+        mPrevLine = null;
+
+        for (String line : lines) {
+            parseLine(line);
+            mPrevLine = line;
+        }
+    }
+
+    private void setDefaultColumns() {
+        // only "Pss Total" is in the first column in all versions
+        mColumnMap[0] = PSS_TOTAL;
+        mColumnMapSize = 1;
+    }
+
+    private void parseLine(String line) {
+        int length = line.length();
+        if (length == 0) {
+            return;
+        }
+        if (mPrevLine != null && line.startsWith("Total") && mPrevLine.startsWith("Pss")) {
+            parseHeader(mPrevLine, line);
+            return;
+        }
+        int labelEnd = findLabelEnd(line);
+        if (labelEnd <= 0 || labelEnd == length) {
+            return; // no label or no number
+        }
+
+        if (line.charAt(labelEnd - 1) == ':') {
+            int field = indexOf(SUMMARY_NAMES, line, labelEnd);
+            if (field < 0 && labelEnd == SUMMARY_TOTAL_OLD_NAME.length() && line.startsWith(SUMMARY_TOTAL_OLD_NAME)) {
+                field = SUMMARY_TOTAL;
+            }
+            if (field < 0) {
+                return;
+            }
+            mSummary[field] = parseLong(line, skipSpaces(line, labelEnd));
+            if (field == SUMMARY_TOTAL) {
+                int pos = line.indexOf(TOTAL_SWAP_PSS, labelEnd);
+                if (pos >= 0) {
+                    mTotalSwapPss = parseLong(line, skipSpaces(line, pos + TOTAL_SWAP_PSS.length()));
+                }
+            }
+            return;
+        }
+
+        int category = indexOf(CATEGORY_NAMES, line, labelEnd);
+        if (category < 0) {
+            return;
+        }
+        int count = parseNumbers(line, labelEnd, mRow);
+        long[] values = mCategories[category];
+        for (int i = 0; i < count && i < mColumnMapSize; i++) {
+            int column = mColumnMap[i];
+            if (column >= 0) {
+                values[column] = mRow[i];
+            }
+        }
+        mHasCategory[category] = true;
+    }
+
+    /**
+     * Map the columns by the two header lines, "Pss" over "Total" is {@link #PSS_TOTAL}...
+     */
+    private void parseHeader(String top, String bottom) {
+        mColumnMapSize = 0;
+        int topPos = 0;
+        int bottomPos = 0;
+        while (true) {
+            topPos = skipSpaces(top, topPos);
+            bottomPos = skipSpaces(bottom, bottomPos);
+            if (topPos >= top.length() || bottomPos >= bottom.length()) {
+                break;
+            }
+            int topEnd = tokenEnd(top, topPos);
+            int bottomEnd = tokenEnd(bottom, bottomPos);
+            int column = -1;
+            for (int i = 0; i < COLUMN_COUNT; i++) {
+                String[] name = COLUMN_NAMES[i];
+                if (regionEquals(top, topPos, topEnd, name[0]) && regionEquals(bottom, bottomPos, bottomEnd, name[1])) {
+                    column = i;
+                    break;
+                }
+            }
+            if (mColumnMapSize == mColumnMap.length) {
+                mColumnMap = Arrays.copyOf(mColumnMap, mColumnMap.length * 2);
+            }
+            mColumnMap[mColumnMapSize++] = column;
+            topPos = topEnd;
+            bottomPos = bottomEnd;
+        }
+        if (mColumnMapSize == 0) {
+            setDefaultColumns();
+        }
+    }
+
+    private static boolean regionEquals(String s, int start, int end, String name) {
+        return end - start == name.length() && s.regionMatches(start, name, 0, name.length());
+    }
+
+    private static int indexOf(String[] names, String line, int labelEnd) {
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i];
+            if (labelEnd == name.length() && line.startsWith(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return end of the label: the last char before the first token which starts with a digit, the spaces are excluded
+     */
+    private static int findLabelEnd(String line) {
+        int length = line.length();
+        int labelEnd = 0;
+        int pos = 0;
+        while (pos < length) {
+            pos = skipSpaces(line, pos);
+            if (pos >= length) {
+                break;
+            }
+            char c = line.charAt(pos);
+            if (c >= '0' && c <= '9') {
+                return labelEnd;
+            }
+            pos = tokenEnd(line, pos);
+            labelEnd = pos;
+        }
+        return length;
+    }
+
+    private static int skipSpaces(String s, int pos) {
+        while (pos < s.length() && (s.charAt(pos) == ' ' || s.charAt(pos) == '\t')) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int tokenEnd(String s, int pos) {
+        while (pos < s.length() && s.charAt(pos) != ' ' && s.charAt(pos) != '\t') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static long parseLong(String s, int pos) {
+        long value = 0;
+        while (pos < s.length()) {
+            char c = s.charAt(pos);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
+            pos++;
+        }
+        return value;
+    }
+
+    /**
+     * Parse the numbers of a row, stops at the first token which is not a number
+     *
+     * @return count of numbers
+     */
+    private static int parseNumbers(String line, int pos, long[] out) {
+        int count = 0;
+        int length = line.length();
+        while (count < out.length) {
+            pos = skipSpaces(line, pos);
+            if (pos >= length) {
+                break;
+            }
+            int end = tokenEnd(line, pos);
+            for (int i = pos; i < end; i++) {
+                char c = line.charAt(i);
+                if (c < '0' || c > '9') {
+                    return count;
+                }
+            }
+            out[count++] = parseLong(line, pos);
+            pos = end;
+        }
+        return count;
+    }
+
+    /**
+     * @return whether the category row is in the output
+     */
+    public boolean hasCategory(int category) {
+        return mHasCategory[category];
+    }
+
+    /**
+     * @param category {@link #NATIVE_HEAP}, {@link #DALVIK_HEAP}...
+     * @param column   {@link #PSS_TOTAL}, {@link #PRIVATE_DIRTY}...
+     * @return value(kb), 0 if it is not in the output
+     */
+    public long get(int category, int column) {
+        return mCategories[category][column];
+    }
+
+    /**
+     * @param field {@link #SUMMARY_JAVA_HEAP}, {@link #SUMMARY_CODE}...
+     * @return pss(kb) of the app summary, 0 if it is not in the output
+     */
+    public long getSummary(int field) {
+        return mSummary[field];
+    }
+
+    /**
+     * @return total swap pss(kb) of the app summary
+     */
+    public long getTotalSwapPss() {
+        return mTotalSwapPss;
+    }
+
+    /**
+     * Parse the "Total PSS by process" section of `dumpsys meminfo`(without arguments), the pss of all processes in one call
+     * <pre>
+     * Total PSS by process:
+     *     169,640K: com.example.game (pid 1234 / activities)
+     *      52,300K: com.example.game:remote (pid 1235)
+     * </pre>
+     * Before android 7 the values are like "169640 kB".
+     *
+     * @param lines trimmed lines
+     * @param out   pss(kb) by pid
+     * @return count of processes
+     */
+    public static int parseTotalPssByProcess(List<String> lines, Map<Integer, Long> out) {
+        int count = 0;
+        boolean inSection = false;
+        for (String line : lines) {
+            if (!inSection) {
+                inSection = line.equals(TOTAL_PSS_BY_PROCESS);
+                continue;
+            }
+            if (line.isEmpty()) {
+                break;
+            }
+            long pss = 0;
+            int pos = 0;
+            for (; pos < line.length(); pos++) {
+                char c = line.charAt(pos);
+                if (c >= '0' && c <= '9') {
+                    pss = pss * 10 + (c - '0');
+                } else if (c != ',') {
+                    break;
+                }
+            }
+            int pidPos = line.indexOf(PID_PREFIX, pos);
+            if (pos == 0 || pidPos < 0) {
+                continue;
+            }
+            int pidStart = pidPos + PID_PREFIX.length();
+            long pid = parseLong(line, pidStart);
+            if (pidStart < line.length() && line.charAt(pidStart) >= '0' && line.charAt(pidStart) <= '9') {
+                out.put((int) pid, pss);
+                count++;
+            }
+        }
+        return count;
+    }
+}
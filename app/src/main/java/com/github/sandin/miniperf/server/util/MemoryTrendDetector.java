@@ -0,0 +1,172 @@
+package com.github.sandin.miniperf.server.util;
+
+/**
+ * Memory Trend Detector
+ * <p>
+ * Streaming analysis of a memory series(e.g. pss, kb) in constant memory:
+ * <ul>
+ * <li>Growth: least squares regression of the samples, the weights decay exponentially with the time constant of
+ * the window so it follows the last window. Flagged if the fitted growth over the window passes the threshold,
+ * the fit is good(R^2) and the series is longer than the window, at most once per window.</li>
+ * <li>Step: Page-Hinkley test of an upward shift of the mean, the deviations from the running mean minus a
+ * tolerance are accumulated, flagged if the accumulation rises above its minimum by more than the threshold.</li>
+ * </ul>
+ */
+public final class MemoryTrendDetector {
+
+    public static final int TREND_NONE = 0;
+    public static final int TREND_GROWTH = 1;
+    public static final int TREND_STEP = 2;
+
+    /**
+     * min R^2 of the regression to flag a growth, the sawtooth of GC is not a trend
+     */
+    private static final double MIN_R2 = 0.6;
+
+    private final long mWindowMs;
+    private final long mGrowthThreshold;
+    private final long mStepThreshold;
+
+    private long mStartTime = -1;
+    private long mLastTime = -1;
+    private long mLastGrowthTime = -1;
+
+    // decayed sums of the regression, time in ms since mStartTime
+    private double mSw, mSt, mSv, mStt, mStv, mSvv;
+    private double mSlope = 0; // per ms
+    private double mR2 = 0;
+
+    // Page-Hinkley
+    private long mCount = 0;
+    private double mMean = 0;
+    private double mCumSum = 0;
+    private double mMinCumSum = 0;
+    private double mMeanAtMin = 0;
+    private double mStepSize = 0;
+
+    /**
+     * Constructor
+     *
+     * @param windowMs        window of the growth(ms)
+     * @param growthThreshold min growth over the window to flag
+     * @param stepThreshold   min upward shift of the mean to flag
+     */
+    public MemoryTrendDetector(long windowMs, long growthThreshold, long stepThreshold) {
+        mWindowMs = windowMs;
+        mGrowthThreshold = growthThreshold;
+        mStepThreshold = stepThreshold;
+    }
+
+    /**
+     * Add a sample
+     *
+     * @param time  timestamp(ms), monotonic
+     * @param value value
+     * @return {@link #TREND_NONE}, {@link #TREND_GROWTH} or {@link #TREND_STEP}
+     */
+    public int add(long time, long value) {
+        if (mStartTime < 0) {
+            mStartTime = time;
+        } else if (time <= mLastTime) {
+            return TREND_NONE;
+        }
+        double decay = mLastTime >= 0 ? Math.exp(-(double) (time - mLastTime) / mWindowMs) : 1;
+        mLastTime = time;
+
+        double t = time - mStartTime;
+        double v = value;
+        mSw = mSw * decay + 1;
+        mSt = mSt * decay + t;
+        mSv = mSv * decay + v;
+        mStt = mStt * decay + t * t;
+        mStv = mStv * decay + t * v;
+        mSvv = mSvv * decay + v * v;
+        double varT = mSw * mStt - mSt * mSt;
+        double varV = mSw * mSvv - mSv * mSv;
+        double cov = mSw * mStv - mSt * mSv;
+        mSlope = varT > 0 ? cov / varT : 0;
+        mR2 = varT > 0 && varV > 0 ? cov * cov / (varT * varV) : 0;
+
+        int result = TREND_NONE;
+        if (detectStep(v)) {
+            result = TREND_STEP;
+        }
+        if (time - mStartTime >= mWindowMs && getGrowth() >= mGrowthThreshold && mR2 >= MIN_R2
+                && (mLastGrowthTime < 0 || time - mLastGrowthTime >= mWindowMs)) {
+            mLastGrowthTime = time;
+            result = TREND_GROWTH;
+        }
+        return result;
+    }
+
+    private boolean detectStep(double value) {
+        mCount++;
+        mMean += (value - mMean) / mCount;
+        mCumSum += value - mMean - mStepThreshold / 2.0;
+        if (mCumSum < mMinCumSum) {
+            mMinCumSum = mCumSum;
+            mMeanAtMin = mMean;
+        }
+        if (mCount > 1 && mCumSum - mMinCumSum > mStepThreshold) {
+            mStepSize = value - mMeanAtMin;
+            // start over from the new level
+            mCount = 1;
+            mMean = value;
+            mCumSum = 0;
+            mMinCumSum = 0;
+            mMeanAtMin = value;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return slope of the regression(per minute)
+     */
+    public double getSlope() {
+        return mSlope * 60000;
+    }
+
+    /**
+     * @return fitted growth over the window
+     */
+    public double getGrowth() {
+        return mSlope * mWindowMs;
+    }
+
+    /**
+     * @return R^2 of the regression, 0-1
+     */
+    public double getR2() {
+        return mR2;
+    }
+
+    /**
+     * @return time since the first sample(ms)
+     */
+    public long getDuration() {
+        return mStartTime >= 0 ? mLastTime - mStartTime : 0;
+    }
+
+    /**
+     * @return size of the last step
+     */
+    public double getStepSize() {
+        return mStepSize;
+    }
+
+    public void reset() {
+        mStartTime = -1;
+        mLastTime = -1;
+        mLastGrowthTime = -1;
+        mSw = mSt = mSv = mStt = mStv = mSvv = 0;
+        mSlope = 0;
+        mR2 = 0;
+        mCount = 0;
+        mMean = 0;
+        mCumSum = 0;
+        mMinCumSum = 0;
+        mMeanAtMin = 0;
+        mStepSize = 0;
+    }
+}
@@ -0,0 +1,260 @@
+package com.github.sandin.miniperf.server.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Reader of a procfs/sysfs file
+ * <p>
+ * The file handle is kept open and every {@link #read()} re-reads the file from the beginning into
+ * a reused byte buffer, values are then parsed in place by a cursor, so polling does not allocate.
+ */
+public final class ProcFileReader implements Closeable {
+
+    private static final int DEFAULT_BUFFER_SIZE = 512;
+
+    private final String mPath;
+    private RandomAccessFile mFile;
+    private boolean mOpened = false;
+    private boolean mOpenFailed = false;
+    private byte[] mBuffer;
+    private int mLength = 0;
+    private int mPos = 0;
+
+    public ProcFileReader(String path) {
+        this(path, DEFAULT_BUFFER_SIZE);
+    }
+
+    public ProcFileReader(String path, int bufferSize) {
+        mPath = path;
+        mBuffer = new byte[bufferSize];
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    /**
+     * Re-read the whole file, the cursor is rewound to the beginning
+     *
+     * @return success/fail, a file which can not be opened at the first read is never retried, a file which was
+     * opened before is reopened at the next read(sysfs nodes of a hotplugged cpu come back)
+     */
+    public boolean read() {
+        mLength = 0;
+        mPos = 0;
+        if (mOpenFailed) {
+            return false;
+        }
+        try {
+            if (mFile == null) {
+                mFile = new RandomAccessFile(mPath, "r");
+                mOpened = true;
+            }
+            mFile.seek(0);
+            int n;
+            while ((n = mFile.read(mBuffer, mLength, mBuffer.length - mLength)) > 0) {
+                mLength += n;
+                if (mLength == mBuffer.length) {
+                    byte[] bigger = new byte[mBuffer.length * 2];
+                    System.arraycopy(mBuffer, 0, bigger, 0, mLength);
+                    mBuffer = bigger;
+                }
+            }
+            return mLength > 0;
+        } catch (IOException e) {
+            if (!mOpened) {
+                mOpenFailed = true;
+            }
+            close();
+            return false;
+        }
+    }
+
+    public int length() {
+        return mLength;
+    }
+
+    public byte[] buffer() {
+        return mBuffer;
+    }
+
+    public int position() {
+        return mPos;
+    }
+
+    public void position(int pos) {
+        mPos = pos;
+    }
+
+    public void rewind() {
+        mPos = 0;
+    }
+
+    public boolean hasMore() {
+        return mPos < mLength;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == ':';
+    }
+
+    private void skipSpaces() {
+        while (mPos < mLength && isSpace(mBuffer[mPos])) {
+            mPos++;
+        }
+    }
+
+    /**
+     * Skip whitespace separated fields on the current line
+     *
+     * @param count number of fields
+     * @return false if the end of line is reached before
+     */
+    public boolean skipFields(int count) {
+        for (int i = 0; i < count; i++) {
+            while (mPos < mLength && (mBuffer[mPos] == ' ' || mBuffer[mPos] == '\t')) {
+                mPos++;
+            }
+            if (mPos >= mLength || mBuffer[mPos] == '\n') {
+                return false;
+            }
+            while (mPos < mLength && !isSpace(mBuffer[mPos])) {
+                mPos++;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse the next decimal number, separators (space, tab, newline and ':') are skipped first
+     *
+     * @param defVal value returned if there is no number at the cursor
+     * @return the number
+     */
+    public long nextLong(long defVal) {
+        skipSpaces();
+        boolean negative = false;
+        if (mPos < mLength && mBuffer[mPos] == '-') {
+            negative = true;
+            mPos++;
+        }
+        if (mPos >= mLength || mBuffer[mPos] < '0' || mBuffer[mPos] > '9') {
+            return defVal;
+        }
+        long value = 0;
+        while (mPos < mLength && mBuffer[mPos] >= '0' && mBuffer[mPos] <= '9') {
+            value = value * 10 + (mBuffer[mPos] - '0');
+            mPos++;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Move the cursor to the beginning of the next line
+     *
+     * @return false if there is no next line
+     */
+    public boolean nextLine() {
+        while (mPos < mLength && mBuffer[mPos] != '\n') {
+            mPos++;
+        }
+        if (mPos < mLength) {
+            mPos++;
+        }
+        return mPos < mLength;
+    }
+
+    /**
+     * Move the cursor right after the last occurrence of a byte
+     *
+     * @return false if not found
+     */
+    public boolean seekAfterLast(char c) {
+        for (int i = mLength - 1; i >= mPos; i--) {
+            if (mBuffer[i] == c) {
+                mPos = i + 1;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the bytes at the cursor start with the prefix, cursor is moved after it if matched
+     */
+    public boolean matchPrefix(String prefix) {
+        int len = prefix.length();
+        if (mPos + len > mLength) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (mBuffer[mPos + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        mPos += len;
+        return true;
+    }
+
+    /**
+     * Find the line starting with the prefix, from the cursor on, cursor is moved after it if found
+     *
+     * @return found or not
+     */
+    public boolean findLine(String prefix) {
+        do {
+            if (matchPrefix(prefix)) {
+                return true;
+            }
+        } while (nextLine());
+        return false;
+    }
+
+    /**
+     * Find a token on the current line, from the cursor on, cursor is moved after it if found
+     *
+     * @return found or not, the cursor is not moved if not found
+     */
+    public boolean seekInLine(String token) {
+        int len = token.length();
+        for (int i = mPos; i + len <= mLength && mBuffer[i] != '\n'; i++) {
+            int j = 0;
+            while (j < len && mBuffer[i + j] == token.charAt(j)) {
+                j++;
+            }
+            if (j == len) {
+                mPos = i + len;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read the next token as a string, ends at whitespace or NUL (allocates, do not use it on hot paths)
+     */
+    public String nextString() {
+        while (mPos < mLength && (mBuffer[mPos] == ' ' || mBuffer[mPos] == '\t' || mBuffer[mPos] == '\n')) {
+            mPos++;
+        }
+        int start = mPos;
+        while (mPos < mLength && (mBuffer[mPos] & 0xff) > ' ') {
+            mPos++;
+        }
+        return new String(mBuffer, start, mPos - start);
+    }
+
+    @Override
+    public void close() {
+        if (mFile != null) {
+            try {
+                mFile.close();
+            } catch (IOException ignore) {
+            }
+            mFile = null;
+        }
+    }
+
+}
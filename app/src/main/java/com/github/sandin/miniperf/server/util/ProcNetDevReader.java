@@ -0,0 +1,87 @@
+package com.github.sandin.miniperf.server.util;
+
+import java.io.Closeable;
+
+/**
+ * Reader of /proc/net/dev
+ * <p>
+ * Traffic of all the processes by interface, readable without any permission on every android version:
+ * <pre>
+ * Inter-|   Receive                                                |  Transmit
+ *  face |bytes    packets errs drop fifo frame compressed multicast|bytes    packets errs drop fifo colls carrier compressed
+ *     lo:    1234      12    0    0    0     0          0         0     1234      12    0    0    0     0       0          0
+ *  wlan0: 5678901    4567    0    0    0     0          0         0   123456    2345    0    0    0     0       0          0
+ * </pre>
+ * Loopback(lo) is not counted, the file is kept opened and parsed in place.
+ */
+public final class ProcNetDevReader implements Closeable {
+
+    private final ProcFileReader mReader;
+
+    private final long[] mTotal = new long[InterfaceTypeCounters.COUNTER_COUNT];
+    private final InterfaceTypeCounters mIfaces = new InterfaceTypeCounters();
+
+    public ProcNetDevReader(String path) {
+        mReader = new ProcFileReader(path, 4096);
+    }
+
+    /**
+     * @return false if the file can not be read
+     */
+    public boolean read() {
+        for (int i = 0; i < mTotal.length; i++) {
+            mTotal[i] = 0;
+        }
+        mIfaces.clear();
+        if (!mReader.read()) {
+            return false;
+        }
+        mReader.nextLine(); // headers
+        while (mReader.nextLine()) {
+            byte[] buffer = mReader.buffer();
+            int start = mReader.position();
+            while (start < mReader.length() && buffer[start] == ' ') {
+                start++;
+            }
+            mReader.position(start);
+            if (mReader.matchPrefix("lo:") || !mReader.seekInLine(":")) {
+                continue;
+            }
+            long[] iface = mIfaces.get(buffer, start, mReader.position() - 1);
+            long rxBytes = mReader.nextLong(0);
+            long rxPackets = mReader.nextLong(0);
+            mReader.skipFields(6); // errs drop fifo frame compressed multicast
+            long txBytes = mReader.nextLong(0);
+            long txPackets = mReader.nextLong(0);
+            iface[InterfaceTypeCounters.RX_BYTES] += rxBytes;
+            iface[InterfaceTypeCounters.RX_PACKETS] += rxPackets;
+            iface[InterfaceTypeCounters.TX_BYTES] += txBytes;
+            iface[InterfaceTypeCounters.TX_PACKETS] += txPackets;
+            mTotal[InterfaceTypeCounters.RX_BYTES] += rxBytes;
+            mTotal[InterfaceTypeCounters.RX_PACKETS] += rxPackets;
+            mTotal[InterfaceTypeCounters.TX_BYTES] += txBytes;
+            mTotal[InterfaceTypeCounters.TX_PACKETS] += txPackets;
+        }
+        return true;
+    }
+
+    /**
+     * @param counter {@link InterfaceTypeCounters#RX_BYTES}...
+     * @return counter of all the interfaces of the last {@link #read()}
+     */
+    public long getTotal(int counter) {
+        return mTotal[counter];
+    }
+
+    /**
+     * @return counters of the last {@link #read()} by interface type
+     */
+    public InterfaceTypeCounters getIfaces() {
+        return mIfaces;
+    }
+
+    @Override
+    public void close() {
+        mReader.close();
+    }
+}
@@ -0,0 +1,134 @@
+package com.github.sandin.miniperf.server.util;
+
+import java.io.Closeable;
+
+/**
+ * Reader of /proc/net/xt_qtaguid/stats
+ * <p>
+ * The table is streamed through a reused buffer of {@link ProcFileReader}, the uid column of each row is matched
+ * before the rest of the row is parsed, so only the rows of the uid cost more than a few byte comparisons.
+ * <p>
+ * Columns: idx iface acct_tag_hex uid_tag_int cnt_set rx_bytes rx_packets tx_bytes tx_packets
+ * rx_tcp_bytes rx_tcp_packets rx_udp_bytes rx_udp_packets rx_other_bytes rx_other_packets
+ * tx_tcp_bytes tx_tcp_packets tx_udp_bytes tx_udp_packets tx_other_bytes tx_other_packets
+ * <ul>
+ * <li>The rows with a non zero acct_tag are the tagged(socket tag) subsets of the 0x0 row, only the 0x0 rows are counted.</li>
+ * <li>cnt_set 0/1(background/foreground) are different rows, both are counted.</li>
+ * <li>Loopback(lo) is not counted.</li>
+ * </ul>
+ * The counters are also summed by protocol(tcp, udp, other) and by {@link InterfaceTypeCounters interface type}.
+ */
+public final class QtaguidStatsReader implements Closeable {
+
+    public static final int RX_BYTES = InterfaceTypeCounters.RX_BYTES;
+    public static final int RX_PACKETS = InterfaceTypeCounters.RX_PACKETS;
+    public static final int TX_BYTES = InterfaceTypeCounters.TX_BYTES;
+    public static final int TX_PACKETS = InterfaceTypeCounters.TX_PACKETS;
+    public static final int COUNTER_COUNT = InterfaceTypeCounters.COUNTER_COUNT;
+
+    public static final int PROTOCOL_TCP = 0;
+    public static final int PROTOCOL_UDP = 1;
+    public static final int PROTOCOL_OTHER = 2;
+    public static final String[] PROTOCOL_NAMES = {"tcp", "udp", "other"};
+
+    private final ProcFileReader mReader;
+
+    private final long[] mTotal = new long[COUNTER_COUNT];
+    private final long[][] mProtocols = new long[PROTOCOL_NAMES.length][COUNTER_COUNT];
+    private final InterfaceTypeCounters mIfaces = new InterfaceTypeCounters();
+
+    public QtaguidStatsReader(String path) {
+        mReader = new ProcFileReader(path, 16 * 1024);
+    }
+
+    /**
+     * Read the traffic of a uid
+     *
+     * @param uid uid of the app
+     * @return false if the file can not be read
+     */
+    public boolean read(int uid) {
+        clear(mTotal);
+        for (long[] counters : mProtocols) {
+            clear(counters);
+        }
+        mIfaces.clear();
+        if (!mReader.read()) {
+            return false;
+        }
+        while (mReader.nextLine()) { // the first line is the header
+            if (!mReader.skipFields(1) // idx
+                    || mReader.matchPrefix(" lo ")) {
+                continue;
+            }
+            int ifaceStart = mReader.position() + 1;
+            if (!mReader.skipFields(1) // iface
+                    || !mReader.matchPrefix(" 0x0 ") // acct_tag_hex
+                    || mReader.nextLong(-1) != uid) {
+                continue;
+            }
+            long[] iface = mIfaces.get(mReader.buffer(), ifaceStart, mReader.position());
+            mReader.nextLong(0); // cnt_set
+            for (int i = 0; i < COUNTER_COUNT; i++) {
+                long value = mReader.nextLong(0);
+                mTotal[i] += value;
+                iface[i] += value;
+            }
+            for (int base = RX_BYTES; base <= TX_BYTES; base += TX_BYTES) { // rx then tx
+                for (long[] counters : mProtocols) {
+                    counters[base] += mReader.nextLong(0); // bytes
+                    counters[base + 1] += mReader.nextLong(0); // packets
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void clear(long[] counters) {
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = 0;
+        }
+    }
+
+    /**
+     * @param counter {@link #RX_BYTES}, {@link #RX_PACKETS}, {@link #TX_BYTES} or {@link #TX_PACKETS}
+     * @return counter of all the interfaces of the last {@link #read(int)}
+     */
+    public long getTotal(int counter) {
+        return mTotal[counter];
+    }
+
+    /**
+     * @return received bytes of the last {@link #read(int)}
+     */
+    public long getRxBytes() {
+        return mTotal[RX_BYTES];
+    }
+
+    /**
+     * @return transmitted bytes of the last {@link #read(int)}
+     */
+    public long getTxBytes() {
+        return mTotal[TX_BYTES];
+    }
+
+    /**
+     * @param protocol {@link #PROTOCOL_TCP}, {@link #PROTOCOL_UDP} or {@link #PROTOCOL_OTHER}
+     * @param counter  {@link #RX_BYTES}, {@link #RX_PACKETS}, {@link #TX_BYTES} or {@link #TX_PACKETS}
+     */
+    public long getProtocol(int protocol, int counter) {
+        return mProtocols[protocol][counter];
+    }
+
+    /**
+     * @return counters of the last {@link #read(int)} by interface type
+     */
+    public InterfaceTypeCounters getIfaces() {
+        return mIfaces;
+    }
+
+    @Override
+    public void close() {
+        mReader.close();
+    }
+}
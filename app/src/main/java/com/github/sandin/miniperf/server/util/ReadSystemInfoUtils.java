@@ -11,6 +11,7 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.LinkedList;
 import java.util.List;
@@ -60,29 +61,70 @@ public class ReadSystemInfoUtils {
         return readInfoFromSystemFile(new String[]{systemFilePath});
     }
 
+    /**
+     * Dump a system service and read all the lines of the output
+     *
+     * @return trimmed lines, empty if failed
+     */
     public static List<String> readInfoFromDumpsys(String serviceName, String[] args) {
-        IBinder service = ServiceManager.getService(serviceName);
         List<String> content = new LinkedList<>();
-        if (service != null) {
-            ParcelFileDescriptor[] pipe = new ParcelFileDescriptor[0];
-            BufferedReader reader = null;
-            try {
-                //first read, second write
-                pipe = ParcelFileDescriptor.createPipe();
-                service.dump(pipe[1].getFileDescriptor(), args);
-                reader = new BufferedReader(new InputStreamReader(new ParcelFileDescriptor.AutoCloseInputStream(pipe[0])));
-                while (reader.ready()) {
-                    content.add(reader.readLine().trim());
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            } finally {
-                close(reader, pipe[0], pipe[1]);
+        InputStream in = openDumpsys(serviceName, args);
+        if (in == null) {
+            return content;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) { // until the dump thread closes the write end
+                content.add(line.trim());
             }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            close(reader);
         }
         return content;
     }
 
+    /**
+     * Dump a system service into a pipe
+     * <p>
+     * The dump is written by the service while the caller reads, so an output larger than the pipe buffer(64KB) does
+     * not block the service: {@link IBinder#dump} returns only when the output is all written, so it runs in a
+     * thread which closes the write end when it is done.
+     *
+     * @return input stream of the dump output, the caller must read it until EOF or close it, or null if failed
+     */
+    public static InputStream openDumpsys(String serviceName, final String[] args) {
+        final IBinder service = ServiceManager.getService(serviceName);
+        if (service == null) {
+            return null;
+        }
+        final ParcelFileDescriptor[] pipe;
+        try {
+            //first read, second write
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        Thread dumpThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    service.dump(pipe[1].getFileDescriptor(), args);
+                } catch (Exception e) {
+                    Log.w(TAG, "dump failed", e);
+                } finally {
+                    close(pipe[1]); // so the reader gets EOF
+                }
+            }
+        }, "Dumpsys-" + serviceName);
+        dumpThread.setDaemon(true);
+        dumpThread.start();
+        return new ParcelFileDescriptor.AutoCloseInputStream(pipe[0]);
+    }
+
     private static void close(Closeable... needCloseObjects) {
         for (Closeable needCloseObject : needCloseObjects) {
             if (needCloseObject != null) {
@@ -0,0 +1,126 @@
+package com.github.sandin.miniperf.server.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming parser of `dumpsys SurfaceFlinger --latency <layerName>`
+ * <p>
+ * The output is the refresh period(ns) on the first line, then one line per frame:
+ * "desiredPresentTime\tactualPresentTime\tframeReadyTime" (ns, Long.MAX_VALUE if pending).
+ * Bytes are tokenized as they are read from the pipe, no lines or strings are created.
+ */
+public final class SurfaceFlingerLatencyParser {
+
+    public interface Listener {
+
+        /**
+         * @param refreshPeriod refresh period of the display(ns)
+         */
+        void onRefreshPeriod(long refreshPeriod);
+
+        /**
+         * @param desiredPresentTime desired present time(ns)
+         * @param actualPresentTime  actual present time(ns)
+         * @param frameReadyTime     frame ready time(ns)
+         */
+        void onFrame(long desiredPresentTime, long actualPresentTime, long frameReadyTime);
+    }
+
+    private static final int MAX_FIELDS = 3;
+
+    private final Listener mListener;
+    private final byte[] mBuffer = new byte[4096];
+    private final long[] mFields = new long[MAX_FIELDS];
+    private int mFieldCount;
+    private int mLineCount;
+    private long mValue;
+    private boolean mInNumber;
+    private boolean mInvalidLine;
+
+    public SurfaceFlingerLatencyParser(Listener listener) {
+        mListener = listener;
+        reset();
+    }
+
+    public void reset() {
+        mFieldCount = 0;
+        mLineCount = 0;
+        mValue = 0;
+        mInNumber = false;
+        mInvalidLine = false;
+    }
+
+    /**
+     * Parse the whole stream, the stream is not closed
+     *
+     * @return count of lines
+     */
+    public int parse(InputStream in) throws IOException {
+        reset();
+        int n;
+        while ((n = in.read(mBuffer)) > 0) {
+            feed(mBuffer, 0, n);
+        }
+        end();
+        return mLineCount;
+    }
+
+    /**
+     * Feed the next bytes of the output
+     */
+    public void feed(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                int digit = b - '0';
+                if (mValue > (Long.MAX_VALUE - digit) / 10) {
+                    mInvalidLine = true; // overflow
+                }
+                mValue = mValue * 10 + digit;
+                mInNumber = true;
+            } else if (b == '\t' || b == ' ' || b == '\r') {
+                endField();
+            } else if (b == '\n') {
+                endLine();
+            } else {
+                mInvalidLine = true;
+            }
+        }
+    }
+
+    /**
+     * End of the output
+     */
+    public void end() {
+        endLine();
+    }
+
+    private void endField() {
+        if (mInNumber) {
+            if (mFieldCount < MAX_FIELDS) {
+                mFields[mFieldCount] = mValue;
+            }
+            mFieldCount++;
+            mValue = 0;
+            mInNumber = false;
+        }
+    }
+
+    private void endLine() {
+        endField();
+        if (mFieldCount > 0) {
+            if (!mInvalidLine) {
+                if (mLineCount == 0 && mFieldCount == 1) {
+                    mListener.onRefreshPeriod(mFields[0]);
+                } else if (mFieldCount == MAX_FIELDS) {
+                    mListener.onFrame(mFields[0], mFields[1], mFields[2]);
+                }
+            }
+            mLineCount++;
+        }
+        mFieldCount = 0;
+        mInvalidLine = false;
+    }
+}
@@ -0,0 +1,31 @@
+package com.github.sandin.server;
+
+import com.github.sandin.miniperf.server.util.BatteryUnits;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BatteryUnitsTest {
+
+    @Test
+    public void voltageUnitTest() {
+        Assert.assertEquals(BatteryUnits.UNIT_MICRO, BatteryUnits.voltageUnit(4200000));
+        Assert.assertEquals(BatteryUnits.UNIT_MILLI, BatteryUnits.voltageUnit(4200));
+        Assert.assertEquals(BatteryUnits.UNIT_UNKNOWN, BatteryUnits.voltageUnit(0));
+    }
+
+    @Test
+    public void idleCurrentTest() {
+        // idle or full battery: a few thousand uA for the whole session
+        Assert.assertEquals(BatteryUnits.UNIT_MICRO, BatteryUnits.currentUnit(3000, BatteryUnits.UNIT_MICRO));
+        // BatteryManager, no voltage_now
+        Assert.assertEquals(BatteryUnits.UNIT_MICRO, BatteryUnits.currentUnit(3000, BatteryUnits.UNIT_UNKNOWN));
+    }
+
+    @Test
+    public void milliCurrentTest() {
+        Assert.assertEquals(BatteryUnits.UNIT_MILLI, BatteryUnits.currentUnit(3000, BatteryUnits.UNIT_MILLI));
+        // never more than 10A
+        Assert.assertEquals(BatteryUnits.UNIT_MICRO, BatteryUnits.currentUnit(300000, BatteryUnits.UNIT_MILLI));
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.sandin.server;
+
+import com.github.sandin.miniperf.server.util.CpuTopology;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+public class CpuTopologyTest {
+
+    @Rule
+    public final TemporaryFolder mTemp = new TemporaryFolder();
+
+    private File mRoot;
+
+    @Before
+    public void setUp() {
+        mRoot = mTemp.getRoot();
+    }
+
+    private void policy(int id, String relatedCpus, long minFreq, long maxFreq) throws IOException {
+        TestFiles.write(mRoot, "cpufreq/policy" + id + "/related_cpus", relatedCpus + "\n");
+        TestFiles.write(mRoot, "cpufreq/policy" + id + "/cpuinfo_min_freq", minFreq + "\n");
+        TestFiles.write(mRoot, "cpufreq/policy" + id + "/cpuinfo_max_freq", maxFreq + "\n");
+    }
+
+    @Test
+    public void loadClustersTest() throws IOException {
+        // 4 little + 3 big + 1 prime, cpu7 is offline but still counted
+        TestFiles.write(mRoot, "possible", "0-7\n");
+        policy(7, "7", 300000, 3000000);
+        policy(0, "0 1 2 3", 300000, 1804800);
+        policy(4, "4 5 6", 710400, 2419200);
+        TestFiles.write(mRoot, "cpu7/cpu_capacity", "1024\n");
+
+        CpuTopology topology = new CpuTopology(mRoot.getPath());
+        Assert.assertEquals(8, topology.getCoreCount());
+        List<CpuTopology.Cluster> clusters = topology.getClusters();
+        Assert.assertEquals(3, clusters.size());
+        Assert.assertEquals(CpuTopology.CLUSTER_LITTLE, clusters.get(0).type);
+        Assert.assertEquals(CpuTopology.CLUSTER_BIG, clusters.get(1).type);
+        Assert.assertEquals(CpuTopology.CLUSTER_PRIME, clusters.get(2).type);
+        Assert.assertArrayEquals(new int[]{4, 5, 6}, clusters.get(1).cpus);
+        Assert.assertEquals(1024, clusters.get(2).capacity);
+        Assert.assertEquals(2419200L * 1024 / 3000000, clusters.get(1).capacity);
+        Assert.assertSame(clusters.get(2), topology.getClusterOfCpu(7));
+        Assert.assertSame(clusters.get(0), topology.getClusterOfCpu(2));
+        Assert.assertNull(topology.getClusterOfCpu(8));
+    }
+
+    @Test
+    public void parseCpuListTest() {
+        Assert.assertArrayEquals(new int[]{0, 1, 2, 3, 6}, CpuTopology.parseCpuList("0-3,6"));
+        Assert.assertArrayEquals(new int[]{4, 5}, CpuTopology.parseCpuList("4 5 "));
+        Assert.assertArrayEquals(new int[0], CpuTopology.parseCpuList(null));
+    }
+}
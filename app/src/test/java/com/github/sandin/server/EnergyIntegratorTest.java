@@ -0,0 +1,42 @@
+package com.github.sandin.server;
+
+import com.github.sandin.miniperf.server.util.EnergyIntegrator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EnergyIntegratorTest {
+
+    @Test
+    public void integrateTest() {
+        EnergyIntegrator integrator = new EnergyIntegrator();
+        integrator.add(0, 1000);
+        Assert.assertEquals(0, integrator.getTickEnergy(), 0.001);
+        Assert.assertEquals(1000, integrator.getTickPower(), 0.001); // no interval yet
+
+        // 1000mW -> 2000mW linearly over 1s: 1500mJ
+        for (int t = 100; t <= 1000; t += 100) {
+            integrator.add(t, 1000 + t);
+        }
+        Assert.assertEquals(1500, integrator.getTickEnergy(), 0.01);
+        Assert.assertEquals(1500, integrator.getTickPower(), 0.01);
+        Assert.assertEquals(11, integrator.getTickSampleCount());
+
+        // the interval across the tick goes to the new tick
+        integrator.endTick();
+        integrator.add(1200, 2000);
+        integrator.add(1200, 9999); // same time, ignored
+        integrator.add(2000, 2000);
+        Assert.assertEquals(2000 * 0.2 + 2000 * 0.8, integrator.getTickEnergy(), 0.01);
+        Assert.assertEquals(2000, integrator.getTickPower(), 0.01);
+        Assert.assertEquals(2, integrator.getTickSampleCount());
+
+        Assert.assertEquals(1500 + 2000, integrator.getSessionEnergy(), 0.01);
+        Assert.assertEquals(1750, integrator.getSessionPower(), 0.01);
+        Assert.assertEquals(2000, integrator.getSessionDuration());
+
+        integrator.reset();
+        Assert.assertEquals(0, integrator.getSessionEnergy(), 0.001);
+        Assert.assertEquals(0, integrator.getSessionDuration());
+    }
+}
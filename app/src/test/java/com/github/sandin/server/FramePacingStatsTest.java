@@ -0,0 +1,69 @@
+package com.github.sandin.server;
+
+import com.github.sandin.miniperf.server.util.FramePacingStats;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FramePacingStatsTest {
+
+    @Test
+    public void steadyPacingTest() {
+        FramePacingStats pacing = new FramePacingStats();
+        pacing.setRefreshPeriod(8333333); // 120Hz
+        for (int i = 0; i < 60; i++) {
+            pacing.addFrame(i % 2 == 0 ? 16500 : 16833); // 60fps with jitter
+        }
+        Assert.assertEquals(60, pacing.getCount());
+        Assert.assertEquals(16666.5, pacing.getMean(), 0.01);
+        Assert.assertEquals(166.5, pacing.getStdDev(), 0.01);
+        Assert.assertEquals(2, pacing.getCadence());
+        Assert.assertEquals(0, pacing.getOffCadenceFrames());
+        Assert.assertEquals(0, pacing.getLongFrames());
+    }
+
+    @Test
+    public void unevenPacingTest() {
+        FramePacingStats pacing = new FramePacingStats();
+        pacing.setRefreshPeriod(8333333); // 120Hz
+        for (int i = 0; i < 10; i++) {
+            pacing.addFrame(16667);
+        }
+        // still 60fps on average, but 1 and 3 vsync frames
+        for (int i = 0; i < 10; i++) {
+            pacing.addFrame(i % 2 == 0 ? 8333 : 25000);
+        }
+        Assert.assertEquals(16666, pacing.getMean(), 1);
+        Assert.assertEquals(5893, pacing.getStdDev(), 1);
+        Assert.assertEquals(2, pacing.getCadence());
+        Assert.assertEquals(10, pacing.getOffCadenceFrames());
+        Assert.assertEquals(5, pacing.getLongFrames());
+        Assert.assertEquals(1, pacing.getMaxLongFrameStreak());
+
+        pacing.reset();
+        Assert.assertEquals(0, pacing.getCount());
+        Assert.assertEquals(0, pacing.getStdDev(), 0);
+        Assert.assertEquals(2, pacing.getCadence()); // kept for the next tick
+        pacing.addFrame(33333);
+        pacing.addFrame(33333);
+        pacing.addFrame(33333);
+        pacing.addFrame(16667);
+        Assert.assertEquals(3, pacing.getLongFrames());
+        Assert.assertEquals(4, pacing.getMaxLongFrameStreak()); // continues the long frame at the end of the previous tick
+    }
+
+    @Test
+    public void refreshRateChangeTest() {
+        FramePacingStats pacing = new FramePacingStats();
+        pacing.addFrame(16667); // unknown refresh period
+        Assert.assertEquals(0, pacing.getCadence());
+        pacing.setRefreshPeriod(16666667);
+        pacing.addFrame(16667);
+        Assert.assertEquals(1, pacing.getCadence());
+        pacing.setRefreshPeriod(8333333);
+        Assert.assertEquals(0, pacing.getCadence());
+        pacing.addFrame(16667);
+        Assert.assertEquals(2, pacing.getCadence());
+        Assert.assertEquals(0, pacing.getOffCadenceFrames());
+    }
+}
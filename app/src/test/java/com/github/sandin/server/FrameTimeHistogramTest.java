@@ -0,0 +1,56 @@
+package com.github.sandin.server;
+
+import com.github.sandin.miniperf.server.util.FrameTimeHistogram;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FrameTimeHistogramTest {
+
+    @Test
+    public void percentileTest() {
+        FrameTimeHistogram histogram = new FrameTimeHistogram();
+        for (int i = 0; i < 990; i++) {
+            histogram.record(16667);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(50000);
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        // 3% precision
+        Assert.assertEquals(16667, histogram.getValueAtPercentile(50), 16667 * 0.03);
+        Assert.assertEquals(16667, histogram.getValueAtPercentile(99), 16667 * 0.03);
+        Assert.assertEquals(50000, histogram.getValueAtPercentile(99.9), 50000 * 0.03);
+        Assert.assertEquals(50000, histogram.getValueAtPercentile(100));
+        Assert.assertEquals(16667, histogram.getMin());
+    }
+
+    @Test
+    public void mergeAndResetTest() {
+        FrameTimeHistogram tick = new FrameTimeHistogram();
+        FrameTimeHistogram session = new FrameTimeHistogram();
+        for (int i = 1; i <= 100; i++) {
+            tick.record(i * 1000);
+        }
+        session.add(tick);
+        tick.reset();
+        Assert.assertEquals(0, tick.getCount());
+        Assert.assertEquals(0, tick.getValueAtPercentile(50));
+        tick.record(FrameTimeHistogram.MAX_VALUE * 2); // clamped
+        session.add(tick);
+        Assert.assertEquals(101, session.getCount());
+        Assert.assertEquals(50000, session.getValueAtPercentile(50), 50000 * 0.03);
+        Assert.assertEquals(FrameTimeHistogram.MAX_VALUE, session.getMax());
+    }
+
+    @Test
+    public void smallValuesTest() {
+        FrameTimeHistogram histogram = new FrameTimeHistogram();
+        histogram.record(0);
+        histogram.record(5);
+        histogram.record(31);
+        histogram.record(32);
+        Assert.assertEquals(5, histogram.getValueAtPercentile(50));
+        Assert.assertEquals(32, histogram.getValueAtPercentile(100));
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.sandin.server;
+
+import com.github.sandin.miniperf.server.util.GfxInfoFrameStatsParser;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class GfxInfoFrameStatsParserTest {
+
+    private static final String HEADER = "Flags,IntendedVsync,Vsync,OldestInputEvent,NewestInputEvent,HandleInputStart,AnimationStart,"
+            + "PerformTraversalsStart,DrawStart,SyncQueued,SyncStart,IssueDrawCommandsStart,SwapBuffers,FrameCompleted,"
+            + "DequeueBufferDuration,QueueBufferDuration,GpuCompleted,";
+
+    private final List<Long> mFrames = new ArrayList<>();
+    private final List<Long> mDraws = new ArrayList<>();
+
+    private final GfxInfoFrameStatsParser.Listener mListener = new GfxInfoFrameStatsParser.Listener() {
+        @Override
+        public void onFrame(GfxInfoFrameStatsParser.Frame frame) {
+            mFrames.add(frame.get(GfxInfoFrameStatsParser.FRAME_COMPLETED));
+            mDraws.add(frame.duration(GfxInfoFrameStatsParser.DRAW_START, GfxInfoFrameStatsParser.SYNC_QUEUED));
+        }
+    };
+
+    private static String row(long flags, long base) {
+        // IntendedVsync Vsync OldestInputEvent NewestInputEvent HandleInputStart AnimationStart PerformTraversalsStart
+        // DrawStart SyncQueued SyncStart IssueDrawCommandsStart SwapBuffers FrameCompleted Dequeue Queue GpuCompleted
+        return flags + "," + base + "," + base + ",9223372036854775807,0," + (base + 100) + "," + (base + 200) + ","
+                + (base + 300) + "," + (base + 400) + "," + (base + 1400) + "," + (base + 1500) + "," + (base + 1600) + ","
+                + (base + 2000) + "," + (base + 3000) + ",10,20," + (base + 2500) + ",";
+    }
+
+    private static List<String> output(String... rows) {
+        List<String> lines = new ArrayList<>();
+        lines.add("Applications Graphics Acceleration Info:");
+        lines.add("---PROFILEDATA---");
+        lines.add(HEADER);
+        lines.addAll(Arrays.asList(rows));
+        lines.add("---PROFILEDATA---");
+        lines.add("View hierarchy:");
+        return lines;
+    }
+
+    @Test
+    public void dedupTest() {
+        GfxInfoFrameStatsParser parser = new GfxInfoFrameStatsParser();
+        // the first poll is the baseline
+        Assert.assertEquals(0, parser.parse(output(row(0, 10000), row(0, 20000)), mListener));
+
+        Assert.assertEquals(2, parser.parse(output(row(0, 20000), row(1, 30000), row(0, 40000), row(0, 50000)), mListener));
+        Assert.assertTrue(parser.isOverlapped());
+        Assert.assertEquals(Arrays.asList(43000L, 53000L), mFrames);
+        Assert.assertEquals(Arrays.asList(1000L, 1000L), mDraws);
+
+        mFrames.clear();
+        Assert.assertEquals(1, parser.parse(output(row(0, 90000)), mListener));
+        Assert.assertFalse(parser.isOverlapped());
+        Assert.assertEquals(Arrays.asList(93000L), mFrames);
+    }
+
+    @Test
+    public void emptyFirstPollTest() {
+        GfxInfoFrameStatsParser parser = new GfxInfoFrameStatsParser();
+        // the window is not drawn yet, or the dump failed
+        Assert.assertEquals(0, parser.parse(new ArrayList<String>(), mListener));
+        Assert.assertEquals(0, parser.parse(output(), mListener));
+        // the historical frames are the baseline, not new frames
+        Assert.assertEquals(0, parser.parse(output(row(0, 10000), row(0, 20000)), mListener));
+        Assert.assertEquals(1, parser.parse(output(row(0, 20000), row(0, 30000)), mListener));
+        Assert.assertEquals(Arrays.asList(33000L), mFrames);
+    }
+
+    @Test
+    public void missingColumnsTest() {
+        GfxInfoFrameStatsParser parser = new GfxInfoFrameStatsParser();
+        List<String> lines = Arrays.asList("---PROFILEDATA---", "Flags,IntendedVsync,Vsync", "0,1,2", "---PROFILEDATA---");
+        parser.parse(lines, mListener);
+        Assert.assertEquals(0, parser.parse(lines, mListener)); // no FrameCompleted column
+    }
+}
@@ -0,0 +1,70 @@
+package com.github.sandin.server;
+
+import com.github.sandin.miniperf.server.util.JankDetector;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JankDetectorTest {
+
+    @Test
+    public void perfDogRulesTest() {
+        JankDetector detector = new JankDetector(5000000, 1024);
+        // not enough history
+        Assert.assertEquals(JankDetector.NO_JANK, detector.addFrame(200000));
+        detector.addFrame(16667);
+        detector.addFrame(16667);
+        detector.addFrame(16667);
+        // > 2 * average but < 2 movie frames
+        Assert.assertEquals(JankDetector.NO_JANK, detector.addFrame(50000));
+        detector.addFrame(16667);
+        detector.addFrame(16667);
+        detector.addFrame(16667);
+        Assert.assertEquals(JankDetector.JANK, detector.addFrame(100000));
+        detector.addFrame(16667);
+        detector.addFrame(16667);
+        detector.addFrame(16667);
+        Assert.assertEquals(JankDetector.BIG_JANK, detector.addFrame(130000));
+        Assert.assertEquals(2, detector.getJank());
+        Assert.assertEquals(1, detector.getBigJank());
+
+        // a slow but steady scene is not janky
+        detector.resetCounters();
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(JankDetector.NO_JANK, detector.addFrame(100000));
+        }
+        Assert.assertEquals(0, detector.getJank());
+    }
+
+    @Test
+    public void missedVsyncTest() {
+        JankDetector detector = new JankDetector(5000000, 1024);
+        Assert.assertTrue(detector.setRefreshPeriod(8333333)); // 120Hz
+        Assert.assertFalse(detector.setRefreshPeriod(8333333));
+        Assert.assertEquals(120, detector.getRefreshRate(), 0.1);
+        detector.addFrame(8333);
+        detector.addFrame(8500); // jitter
+        detector.addFrame(16666); // 1 missed
+        Assert.assertEquals(1, detector.getMissedVsync());
+
+        Assert.assertTrue(detector.setRefreshPeriod(16666666)); // switched to 60Hz
+        detector.addFrame(16666);
+        detector.addFrame(33333); // 1 missed
+        Assert.assertEquals(2, detector.getMissedVsync());
+        Assert.assertFalse(detector.setRefreshPeriod(0));
+    }
+
+    @Test
+    public void stutterWindowTest() {
+        JankDetector detector = new JankDetector(1000000, 1024); // 1s window
+        for (int i = 0; i < 3; i++) {
+            detector.addFrame(100000);
+        }
+        detector.addFrame(700000); // big jank
+        Assert.assertEquals(700000 * 100f / 1000000, detector.getStutter(), 0.01);
+        for (int i = 0; i < 20; i++) {
+            detector.addFrame(100000);
+        }
+        Assert.assertEquals(0, detector.getStutter(), 0.01);
+    }
+}
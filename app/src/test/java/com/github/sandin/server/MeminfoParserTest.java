@@ -0,0 +1,139 @@
+package com.github.sandin.server;
+
+import com.github.sandin.miniperf.server.util.MeminfoParser;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MeminfoParserTest {
+
+    private static List<String> trimmedLines(String output) {
+        List<String> lines = new ArrayList<>();
+        for (String line : output.split("\n")) {
+            lines.add(line.trim());
+        }
+        return lines;
+    }
+
+    @Test
+    public void parseAndroid11Test() {
+        String output = "Applications Memory Usage (in Kilobytes):\n" +
+                "Uptime: 1000 Realtime: 1000\n" +
+                "\n" +
+                "** MEMINFO in pid 1234 [com.example.game] **\n" +
+                "                   Pss  Private  Private  SwapPss      Rss     Heap     Heap     Heap\n" +
+                "                 Total    Dirty    Clean    Dirty    Total     Size    Alloc     Free\n" +
+                "                ------   ------   ------   ------   ------   ------   ------   ------\n" +
+                "  Native Heap    52340    52300        0       12    53000    81920    60000    21920\n" +
+                "  Dalvik Heap     6100     6000        0        3     7000    12000     9000     3000\n" +
+                " Dalvik Other     2000     1900        0        0     2500\n" +
+                "        Stack     1200     1200        0        0     1210\n" +
+                "      Gfx dev    30000    30000        0        0    30000\n" +
+                "     .so mmap    15000      400    10000        0    40000\n" +
+                "   EGL mtrack    20000    20000        0        0    20000\n" +
+                "    GL mtrack    40000    40000        0        0    40000\n" +
+                "      Unknown     3000     2900        0        0     3100\n" +
+                "        TOTAL   169640   154700    10000       15   197810    93920    69000    24920\n" +
+                "\n" +
+                " App Summary\n" +
+                "                       Pss(KB)                        Rss(KB)\n" +
+                "                        ------                         ------\n" +
+                "           Java Heap:     6000                          7000\n" +
+                "         Native Heap:    52300                         53000\n" +
+                "                Code:    10400                         40000\n" +
+                "               Stack:     1200                          1210\n" +
+                "            Graphics:    90000                         90000\n" +
+                "       Private Other:     4800\n" +
+                "              System:     4940\n" +
+                "\n" +
+                "           TOTAL PSS:   169640            TOTAL RSS:   197810       TOTAL SWAP PSS:       15\n" +
+                "\n" +
+                " Objects\n" +
+                "               Views:       12         ViewRootImpl:        1\n";
+        MeminfoParser parser = new MeminfoParser();
+        parser.parse(trimmedLines(output));
+
+        Assert.assertEquals(52340, parser.get(MeminfoParser.NATIVE_HEAP, MeminfoParser.PSS_TOTAL));
+        Assert.assertEquals(81920, parser.get(MeminfoParser.NATIVE_HEAP, MeminfoParser.HEAP_SIZE));
+        Assert.assertEquals(60000, parser.get(MeminfoParser.NATIVE_HEAP, MeminfoParser.HEAP_ALLOC));
+        Assert.assertEquals(9000, parser.get(MeminfoParser.DALVIK_HEAP, MeminfoParser.HEAP_ALLOC));
+        Assert.assertEquals(1210, parser.get(MeminfoParser.STACK, MeminfoParser.RSS_TOTAL));
+        Assert.assertEquals(10000, parser.get(MeminfoParser.SO_MMAP, MeminfoParser.PRIVATE_CLEAN));
+        Assert.assertEquals(20000, parser.get(MeminfoParser.EGL_MTRACK, MeminfoParser.PSS_TOTAL));
+        Assert.assertEquals(40000, parser.get(MeminfoParser.GL_MTRACK, MeminfoParser.PSS_TOTAL));
+        Assert.assertEquals(3000, parser.get(MeminfoParser.UNKNOWN, MeminfoParser.PSS_TOTAL));
+        Assert.assertEquals(169640, parser.get(MeminfoParser.TOTAL, MeminfoParser.PSS_TOTAL));
+        Assert.assertEquals(15, parser.get(MeminfoParser.TOTAL, MeminfoParser.SWAP_PSS_DIRTY));
+        Assert.assertTrue(parser.hasCategory(MeminfoParser.GFX_DEV));
+        Assert.assertFalse(parser.hasCategory(MeminfoParser.ASHMEM));
+
+        Assert.assertEquals(6000, parser.getSummary(MeminfoParser.SUMMARY_JAVA_HEAP));
+        Assert.assertEquals(52300, parser.getSummary(MeminfoParser.SUMMARY_NATIVE_HEAP));
+        Assert.assertEquals(10400, parser.getSummary(MeminfoParser.SUMMARY_CODE));
+        Assert.assertEquals(1200, parser.getSummary(MeminfoParser.SUMMARY_STACK));
+        Assert.assertEquals(90000, parser.getSummary(MeminfoParser.SUMMARY_GRAPHICS));
+        Assert.assertEquals(4800, parser.getSummary(MeminfoParser.SUMMARY_PRIVATE_OTHER));
+        Assert.assertEquals(4940, parser.getSummary(MeminfoParser.SUMMARY_SYSTEM));
+        Assert.assertEquals(169640, parser.getSummary(MeminfoParser.SUMMARY_TOTAL));
+        Assert.assertEquals(15, parser.getTotalSwapPss());
+    }
+
+    @Test
+    public void parseAndroid44Test() {
+        String output = "** MEMINFO in pid 1234 [com.example.game] **\n" +
+                "                   Pss  Private  Private  Swapped     Heap     Heap     Heap\n" +
+                "                 Total    Dirty    Clean    Dirty     Size    Alloc     Free\n" +
+                "                ------   ------   ------   ------   ------   ------   ------\n" +
+                "  Native Heap    10000     9900        0        0    16384    12000     4384\n" +
+                "  Dalvik Heap     8000     7900        0        0    20000    15000     5000\n" +
+                "      Unknown      500      500        0        0\n" +
+                "        TOTAL    18500    18300        0        0    36384    27000     9384\n";
+        MeminfoParser parser = new MeminfoParser();
+        parser.parse(trimmedLines(output));
+        Assert.assertEquals(10000, parser.get(MeminfoParser.NATIVE_HEAP, MeminfoParser.PSS_TOTAL));
+        Assert.assertEquals(16384, parser.get(MeminfoParser.NATIVE_HEAP, MeminfoParser.HEAP_SIZE));
+        Assert.assertEquals(0, parser.get(MeminfoParser.NATIVE_HEAP, MeminfoParser.SWAP_PSS_DIRTY)); // "Swapped Dirty"
+        Assert.assertEquals(15000, parser.get(MeminfoParser.DALVIK_HEAP, MeminfoParser.HEAP_ALLOC));
+        Assert.assertEquals(18500, parser.get(MeminfoParser.TOTAL, MeminfoParser.PSS_TOTAL));
+        Assert.assertEquals(0, parser.getSummary(MeminfoParser.SUMMARY_TOTAL));
+
+        // values of the previous output are cleared
+        parser.parse(trimmedLines("TOTAL:   1234\n"));
+        Assert.assertFalse(parser.hasCategory(MeminfoParser.NATIVE_HEAP));
+        Assert.assertEquals(1234, parser.getSummary(MeminfoParser.SUMMARY_TOTAL));
+    }
+
+    @Test
+    public void parseTotalPssByProcessTest() {
+        String output = "Applications Memory Usage (in Kilobytes):\n" +
+                "Uptime: 1000 Realtime: 1000\n" +
+                "\n" +
+                "Total RSS by process:\n" +
+                "    197,810K: com.example.game (pid 1234 / activities)\n" +
+                "\n" +
+                "Total PSS by process:\n" +
+                "    169,640K: com.example.game (pid 1234 / activities)\n" +
+                "     52,300K: com.example.game:remote (pid 1235)\n" +
+                "        900K: logd (pid 300)\n" +
+                "\n" +
+                "Total PSS by OOM adjustment:\n" +
+                "    169,640K: Foreground\n";
+        Map<Integer, Long> pss = new HashMap<>();
+        Assert.assertEquals(3, MeminfoParser.parseTotalPssByProcess(trimmedLines(output), pss));
+        Assert.assertEquals(169640L, (long) pss.get(1234));
+        Assert.assertEquals(52300L, (long) pss.get(1235));
+        Assert.assertEquals(900L, (long) pss.get(300));
+
+        // before android 7
+        pss.clear();
+        output = "Total PSS by process:\n" +
+                "    169640 kB: com.example.game (pid 1234 / activities)\n";
+        Assert.assertEquals(1, MeminfoParser.parseTotalPssByProcess(trimmedLines(output), pss));
+        Assert.assertEquals(169640L, (long) pss.get(1234));
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.sandin.server;
+
+import com.github.sandin.miniperf.server.util.MemoryTrendDetector;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MemoryTrendDetectorTest {
+
+    private static final long MB = 1024; // kb
+
+    @Test
+    public void growthTest() {
+        // +50MB over 10 minutes
+        MemoryTrendDetector detector = new MemoryTrendDetector(600000, 50 * MB, 100 * MB);
+        int growths = 0;
+        long firstGrowthTime = -1;
+        for (long t = 0; t <= 1800000; t += 1000) {
+            long value = 300 * MB + 10 * MB * t / 60000 + (t / 1000 % 10) * MB; // +10MB/min, with noise
+            if (detector.add(t, value) == MemoryTrendDetector.TREND_GROWTH) {
+                growths++;
+                if (firstGrowthTime < 0) {
+                    firstGrowthTime = t;
+                }
+            }
+        }
+        Assert.assertEquals(600000, firstGrowthTime); // not before a whole window
+        Assert.assertEquals(3, growths); // at most once per window
+        Assert.assertEquals(10 * MB, detector.getSlope(), MB);
+        Assert.assertTrue(detector.getR2() > 0.9);
+        Assert.assertEquals(1800000, detector.getDuration());
+    }
+
+    @Test
+    public void sawtoothTest() {
+        MemoryTrendDetector detector = new MemoryTrendDetector(600000, 50 * MB, 100 * MB);
+        for (long t = 0; t <= 3600000; t += 1000) {
+            long value = 300 * MB + (t / 1000 % 30) * MB; // GC every 30s, 30MB
+            Assert.assertEquals(MemoryTrendDetector.TREND_NONE, detector.add(t, value));
+        }
+        Assert.assertTrue(Math.abs(detector.getGrowth()) < 50 * MB);
+    }
+
+    @Test
+    public void stepTest() {
+        MemoryTrendDetector detector = new MemoryTrendDetector(600000, 50 * MB, 100 * MB);
+        long t = 0;
+        for (; t < 120000; t += 1000) {
+            Assert.assertEquals(MemoryTrendDetector.TREND_NONE, detector.add(t, 300 * MB + (t / 1000 % 5) * MB));
+        }
+        int steps = 0;
+        for (; t < 240000; t += 1000) {
+            if (detector.add(t, 450 * MB + (t / 1000 % 5) * MB) == MemoryTrendDetector.TREND_STEP) {
+                steps++;
+            }
+        }
+        Assert.assertEquals(1, steps);
+        Assert.assertEquals(150 * MB, detector.getStepSize(), 5 * MB);
+
+        // going down is not a step
+        for (; t < 360000; t += 1000) {
+            Assert.assertEquals(MemoryTrendDetector.TREND_NONE, detector.add(t, 300 * MB));
+        }
+        detector.reset();
+        Assert.assertEquals(0, detector.getDuration());
+        Assert.assertEquals(MemoryTrendDetector.TREND_NONE, detector.add(t, 300 * MB));
+        Assert.assertEquals(MemoryTrendDetector.TREND_NONE, detector.add(t, 900 * MB)); // same time, ignored
+    }
+}
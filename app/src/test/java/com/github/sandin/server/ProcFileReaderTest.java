@@ -0,0 +1,110 @@
+package com.github.sandin.server;
+
+import com.github.sandin.miniperf.server.util.ProcFileReader;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+public class ProcFileReaderTest {
+
+    @Rule
+    public final TemporaryFolder mTemp = new TemporaryFolder();
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = mTemp.newFile("stat");
+    }
+
+    @Test
+    public void parsePidStatTest() throws IOException {
+        TestFiles.write(mFile, "1234 (com.foo:push (x)) S 1 2 3 0 -1 4194624 100 0 5 0 700 300 0 0 20 0 30 0\n");
+        ProcFileReader reader = new ProcFileReader(mFile.getPath(), 16);
+        Assert.assertTrue(reader.read());
+        Assert.assertTrue(reader.seekAfterLast(')'));
+        Assert.assertTrue(reader.skipFields(11));
+        Assert.assertEquals(700, reader.nextLong(-1));
+        Assert.assertEquals(300, reader.nextLong(-1));
+        reader.close();
+    }
+
+    @Test
+    public void rereadTest() throws IOException {
+        TestFiles.write(mFile, "cpu  1 2 3 4 5 6 7 0 0 0\ncpu0 1 1 1 1 1 1 1 0 0 0\n");
+        ProcFileReader reader = new ProcFileReader(mFile.getPath());
+        Assert.assertTrue(reader.read());
+        Assert.assertTrue(reader.matchPrefix("cpu "));
+        Assert.assertEquals(1, reader.nextLong(-1));
+        Assert.assertTrue(reader.nextLine());
+        Assert.assertTrue(reader.matchPrefix("cpu0"));
+
+        TestFiles.write(mFile, "cpu  10 2 3 4 5 6 7 0 0 0\n");
+        Assert.assertTrue(reader.read());
+        Assert.assertTrue(reader.matchPrefix("cpu "));
+        Assert.assertEquals(10, reader.nextLong(-1));
+        reader.close();
+    }
+
+    @Test
+    public void findLineTest() throws IOException {
+        TestFiles.write(mFile, "Name:\tfoo\nUid:\t10123\t10123\t10123\t10123\nVmRSS:\t  2048 kB\n");
+        ProcFileReader reader = new ProcFileReader(mFile.getPath());
+        Assert.assertTrue(reader.read());
+        Assert.assertTrue(reader.findLine("Uid:"));
+        Assert.assertEquals(10123, reader.nextLong(-1));
+        Assert.assertTrue(reader.findLine("VmRSS:"));
+        Assert.assertEquals(2048, reader.nextLong(-1));
+        reader.rewind();
+        Assert.assertFalse(reader.findLine("VmSwap:"));
+        reader.close();
+    }
+
+    @Test
+    public void seekInLineTest() throws IOException {
+        TestFiles.write(mFile, "some avg10=1.50 avg60=0.80 avg300=0.20 total=123456\nfull avg10=0.00 avg60=0.00 avg300=0.00 total=789\n");
+        ProcFileReader reader = new ProcFileReader(mFile.getPath());
+        Assert.assertTrue(reader.read());
+        Assert.assertTrue(reader.findLine("some"));
+        Assert.assertTrue(reader.seekInLine("total="));
+        Assert.assertEquals(123456, reader.nextLong(-1));
+        Assert.assertTrue(reader.findLine("full"));
+        Assert.assertFalse(reader.seekInLine("max=")); // not on this line
+        Assert.assertTrue(reader.seekInLine("total="));
+        Assert.assertEquals(789, reader.nextLong(-1));
+        reader.close();
+    }
+
+    @Test
+    public void missingFileTest() {
+        ProcFileReader reader = new ProcFileReader(mFile.getPath() + ".missing");
+        Assert.assertFalse(reader.read());
+        Assert.assertFalse(reader.read());
+        reader.close();
+    }
+
+    @Test
+    public void recreatedFileTest() throws IOException {
+        TestFiles.write(mFile, "1\n");
+        ProcFileReader reader = new ProcFileReader(mFile.getPath());
+        Assert.assertTrue(reader.read());
+        Assert.assertEquals(1, reader.nextLong(-1));
+
+        // deleted, the handle is dropped as after a failed read
+        Assert.assertTrue(mFile.delete());
+        reader.close();
+        Assert.assertFalse(reader.read());
+        Assert.assertFalse(reader.read());
+
+        TestFiles.write(mFile, "2\n");
+        Assert.assertTrue(reader.read());
+        Assert.assertEquals(2, reader.nextLong(-1));
+        reader.close();
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.sandin.server;
+
+import com.github.sandin.miniperf.server.util.InterfaceTypeCounters;
+import com.github.sandin.miniperf.server.util.ProcNetDevReader;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+public class ProcNetDevReaderTest {
+
+    private static final String HEADER = "Inter-|   Receive                                                |  Transmit\n"
+            + " face |bytes    packets errs drop fifo frame compressed multicast|bytes    packets errs drop fifo colls carrier compressed\n";
+
+    @Rule
+    public final TemporaryFolder mTemp = new TemporaryFolder();
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = mTemp.newFile("dev");
+    }
+
+    @Test
+    public void readTest() throws IOException {
+        TestFiles.write(mFile, HEADER
+                + "    lo:    1234      12    0    0    0     0          0         0     1234      12    0    0    0     0       0          0\n"
+                + " dummy0:       0       0    0    0    0     0          0         0        0       0    0    0    0     0       0          0\n"
+                + "  wlan0: 5678901    4567    0    3    0     0          0         7   123456    2345    0    0    0     0       0          0\n"
+                + "rmnet_data0:5000000000 100 0    0    0     0          0         0      600       6    0    0    0     0       0          0\n"
+                + "rmnet_data1:     400       4    0    0    0     0          0         0       60       1    0    0    0     0       0          0\n"
+                + "v4-rmnet_data0:  300       3    0    0    0     0          0         0       30       1    0    0    0     0       0          0\n"
+                + "   p2p0:      20       2    0    0    0     0          0         0       10       1    0    0    0     0       0          0\n");
+        ProcNetDevReader reader = new ProcNetDevReader(mFile.getPath());
+        Assert.assertTrue(reader.read());
+        Assert.assertEquals(5678901 + 5000000000L + 400 + 300 + 20, reader.getTotal(InterfaceTypeCounters.RX_BYTES));
+        Assert.assertEquals(4567 + 100 + 4 + 3 + 2, reader.getTotal(InterfaceTypeCounters.RX_PACKETS));
+        Assert.assertEquals(123456 + 600 + 60 + 30 + 10, reader.getTotal(InterfaceTypeCounters.TX_BYTES));
+        Assert.assertEquals(2345 + 6 + 1 + 1 + 1, reader.getTotal(InterfaceTypeCounters.TX_PACKETS));
+
+        InterfaceTypeCounters ifaces = reader.getIfaces();
+        Assert.assertEquals(5, ifaces.size());
+        Assert.assertEquals("dummy", ifaces.getType(0));
+        Assert.assertEquals("wlan", ifaces.getType(1));
+        Assert.assertEquals(2345, ifaces.get(1, InterfaceTypeCounters.TX_PACKETS));
+        Assert.assertEquals("rmnet_data", ifaces.getType(2));
+        Assert.assertEquals(5000000400L, ifaces.get(2, InterfaceTypeCounters.RX_BYTES));
+        Assert.assertEquals(660, ifaces.get(2, InterfaceTypeCounters.TX_BYTES));
+        Assert.assertEquals("v4-rmnet_data", ifaces.getType(3)); // 464xlat, only the trailing number is cut
+        Assert.assertEquals(300, ifaces.get(3, InterfaceTypeCounters.RX_BYTES));
+        Assert.assertEquals("p2p", ifaces.getType(4));
+        Assert.assertEquals(10, ifaces.get(4, InterfaceTypeCounters.TX_BYTES));
+
+        // counters are re-read, not accumulated
+        Assert.assertTrue(reader.read());
+        Assert.assertEquals(660, ifaces.get(2, InterfaceTypeCounters.TX_BYTES));
+        reader.close();
+    }
+
+    @Test
+    public void missingFileTest() {
+        ProcNetDevReader reader = new ProcNetDevReader(mFile.getPath() + ".missing");
+        Assert.assertFalse(reader.read());
+        reader.close();
+    }
+}
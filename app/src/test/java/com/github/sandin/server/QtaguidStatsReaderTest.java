@@ -0,0 +1,93 @@
+package com.github.sandin.server;
+
+import com.github.sandin.miniperf.server.util.QtaguidStatsReader;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+public class QtaguidStatsReaderTest {
+
+    private static final String HEADER = "idx iface acct_tag_hex uid_tag_int cnt_set rx_bytes rx_packets tx_bytes tx_packets "
+            + "rx_tcp_bytes rx_tcp_packets rx_udp_bytes rx_udp_packets rx_other_bytes rx_other_packets "
+            + "tx_tcp_bytes tx_tcp_packets tx_udp_bytes tx_udp_packets tx_other_bytes tx_other_packets\n";
+
+    @Rule
+    public final TemporaryFolder mTemp = new TemporaryFolder();
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = mTemp.newFile("qtaguid");
+    }
+
+    @Test
+    public void readTest() throws IOException {
+        TestFiles.write(mFile, HEADER
+                + "2 wlan0 0x0 0 0 5000 50 6000 60 4000 40 1000 10 0 0 5000 50 1000 10 0 0\n"
+                + "3 wlan0 0x0 10123 0 100 2 200 3 100 2 0 0 0 0 200 3 0 0 0 0\n"
+                + "4 wlan0 0x0 10123 1 3000000000 2000 40000 300 3000000000 2000 0 0 0 0 40000 300 0 0 0 0\n"
+                + "5 wlan0 0x3e800000000 10123 1 1000 10 1000 10 1000 10 0 0 0 0 1000 10 0 0 0 0\n" // tagged subset
+                + "6 lo 0x0 10123 1 777 7 777 7 777 7 0 0 0 0 777 7 0 0 0 0\n"
+                + "7 rmnet_data0 0x0 10123 1 50 1 60 1 0 0 50 1 0 0 0 0 60 1 0 0\n"
+                + "8 rmnet_data0 0x0 101230 1 99 1 99 1 0 0 99 1 0 0 0 0 99 1 0 0\n");
+        QtaguidStatsReader reader = new QtaguidStatsReader(mFile.getPath());
+        Assert.assertTrue(reader.read(10123));
+        Assert.assertEquals(100 + 3000000000L + 50, reader.getRxBytes());
+        Assert.assertEquals(200 + 40000 + 60, reader.getTxBytes());
+
+        Assert.assertTrue(reader.read(1));
+        Assert.assertEquals(0, reader.getRxBytes());
+        reader.close();
+    }
+
+    @Test
+    public void breakdownTest() throws IOException {
+        TestFiles.write(mFile, HEADER
+                + "2 wlan0 0x0 10123 0 100 2 200 3 60 1 40 1 0 0 150 2 50 1 0 0\n"
+                + "3 wlan0 0x0 10123 1 1000 10 2000 20 1000 10 0 0 0 0 2000 20 0 0 0 0\n"
+                + "4 rmnet_data0 0x0 10123 1 50 1 60 1 0 0 50 1 0 0 0 0 60 1 0 0\n"
+                + "5 rmnet_data1 0x0 10123 1 5 1 6 1 0 0 0 0 5 1 0 0 0 0 6 1\n"
+                + "6 v4-rmnet_data0 0x0 10123 1 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0\n");
+        QtaguidStatsReader reader = new QtaguidStatsReader(mFile.getPath());
+        Assert.assertTrue(reader.read(10123));
+        Assert.assertEquals(14, reader.getTotal(QtaguidStatsReader.RX_PACKETS));
+        Assert.assertEquals(25, reader.getTotal(QtaguidStatsReader.TX_PACKETS));
+
+        Assert.assertEquals(3, reader.getIfaces().size());
+        Assert.assertEquals("wlan", reader.getIfaces().getType(0));
+        Assert.assertEquals(1100, reader.getIfaces().get(0, QtaguidStatsReader.RX_BYTES));
+        Assert.assertEquals(23, reader.getIfaces().get(0, QtaguidStatsReader.TX_PACKETS));
+        Assert.assertEquals("rmnet_data", reader.getIfaces().getType(1));
+        Assert.assertEquals(66, reader.getIfaces().get(1, QtaguidStatsReader.TX_BYTES));
+        Assert.assertEquals("v4-rmnet_data", reader.getIfaces().getType(2));
+
+        Assert.assertEquals(1060, reader.getProtocol(QtaguidStatsReader.PROTOCOL_TCP, QtaguidStatsReader.RX_BYTES));
+        Assert.assertEquals(2150, reader.getProtocol(QtaguidStatsReader.PROTOCOL_TCP, QtaguidStatsReader.TX_BYTES));
+        Assert.assertEquals(90, reader.getProtocol(QtaguidStatsReader.PROTOCOL_UDP, QtaguidStatsReader.RX_BYTES));
+        Assert.assertEquals(2, reader.getProtocol(QtaguidStatsReader.PROTOCOL_UDP, QtaguidStatsReader.TX_PACKETS));
+        Assert.assertEquals(5, reader.getProtocol(QtaguidStatsReader.PROTOCOL_OTHER, QtaguidStatsReader.RX_BYTES));
+        Assert.assertEquals(1, reader.getProtocol(QtaguidStatsReader.PROTOCOL_OTHER, QtaguidStatsReader.TX_PACKETS));
+
+        // the interface types are kept
+        TestFiles.write(mFile, HEADER + "2 rmnet_data0 0x0 10123 1 7 1 8 1 7 1 0 0 0 0 8 1 0 0 0 0\n");
+        Assert.assertTrue(reader.read(10123));
+        Assert.assertEquals(3, reader.getIfaces().size());
+        Assert.assertEquals(0, reader.getIfaces().get(0, QtaguidStatsReader.RX_BYTES));
+        Assert.assertEquals(7, reader.getIfaces().get(1, QtaguidStatsReader.RX_BYTES));
+        reader.close();
+    }
+
+    @Test
+    public void missingFileTest() {
+        QtaguidStatsReader reader = new QtaguidStatsReader(mFile.getPath() + ".missing");
+        Assert.assertFalse(reader.read(10123));
+        reader.close();
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.sandin.server;
+
+import com.github.sandin.miniperf.server.util.LongRingBuffer;
+import com.github.sandin.miniperf.server.util.SurfaceFlingerLatencyParser;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+public class SurfaceFlingerLatencyParserTest {
+
+    private long mRefreshPeriod;
+    private final LongRingBuffer mPresentTimes = new LongRingBuffer(4);
+
+    private final SurfaceFlingerLatencyParser mParser = new SurfaceFlingerLatencyParser(new SurfaceFlingerLatencyParser.Listener() {
+        @Override
+        public void onRefreshPeriod(long refreshPeriod) {
+            mRefreshPeriod = refreshPeriod;
+        }
+
+        @Override
+        public void onFrame(long desiredPresentTime, long actualPresentTime, long frameReadyTime) {
+            mPresentTimes.add(actualPresentTime);
+        }
+    });
+
+    @Test
+    public void parseTest() throws IOException {
+        String output = "16666666\n"
+                + "0\t0\t0\n"
+                + "100\t110\t105\n"
+                + "200\t210\t205\n"
+                + "300\t9223372036854775807\t305\n"
+                + "\n";
+        int lines = mParser.parse(new ByteArrayInputStream(output.getBytes()));
+        Assert.assertEquals(5, lines);
+        Assert.assertEquals(16666666, mRefreshPeriod);
+        Assert.assertEquals(4, mPresentTimes.size());
+        Assert.assertEquals(0, mPresentTimes.first());
+        Assert.assertEquals(110, mPresentTimes.get(1));
+        Assert.assertEquals(Long.MAX_VALUE, mPresentTimes.last());
+    }
+
+    @Test
+    public void feedSplitTest() {
+        byte[] bytes = "8333333\n1\t22\t3\n4\t55\t6".getBytes();
+        mParser.reset();
+        for (byte b : bytes) { // a token may be split between reads
+            mParser.feed(new byte[]{b}, 0, 1);
+        }
+        mParser.end();
+        Assert.assertEquals(8333333, mRefreshPeriod);
+        Assert.assertEquals(2, mPresentTimes.size());
+        Assert.assertEquals(22, mPresentTimes.first());
+        Assert.assertEquals(55, mPresentTimes.last());
+    }
+
+    @Test
+    public void invalidLineTest() throws IOException {
+        String output = "Layer not found\n1\tx2\t3\n99999999999999999999\t1\t2\n4\t5\t6\n";
+        mParser.parse(new ByteArrayInputStream(output.getBytes()));
+        Assert.assertEquals(0, mRefreshPeriod);
+        Assert.assertEquals(1, mPresentTimes.size());
+        Assert.assertEquals(5, mPresentTimes.first());
+    }
+
+    @Test
+    public void ringBufferTest() {
+        for (int i = 1; i <= 6; i++) {
+            mPresentTimes.add(i);
+        }
+        Assert.assertEquals(4, mPresentTimes.size());
+        Assert.assertEquals(3, mPresentTimes.first());
+        Assert.assertEquals(6, mPresentTimes.last());
+        mPresentTimes.clear();
+        Assert.assertTrue(mPresentTimes.isEmpty());
+    }
+}
@@ -0,0 +1,35 @@
+package com.github.sandin.server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Fixture files for the tests of the procfs/sysfs readers, created under a {@link org.junit.rules.TemporaryFolder}
+ */
+final class TestFiles {
+
+    private TestFiles() {
+    }
+
+    /**
+     * Replace the content of a file
+     */
+    static void write(File file, String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Replace the content of a file under a directory, the parent directories are created
+     */
+    static void write(File root, String path, String content) throws IOException {
+        File file = new File(root, path);
+        file.getParentFile().mkdirs();
+        write(file, content);
+    }
+}